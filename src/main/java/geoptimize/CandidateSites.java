@@ -0,0 +1,239 @@
+package geoptimize;
+
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
+import java.awt.image.Raster;
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+import java.util.Arrays;
+
+import javax.imageio.ImageIO;
+
+/***
+ * The positions nodes are allowed on, when towers can only go on a known
+ * set of sites. Loaded from a mask image (any non-zero pixel is a site)
+ * or a CSV file of x,y lines.
+ * 
+ * nearest() finds the closest site through a bucket grid over the sites,
+ * so particles can snap to sites every step.
+ * 
+ * @author Callan
+ *
+ */
+public class CandidateSites {
+	
+	protected final int[] xs;
+	protected final int[] ys;
+	
+	//bucket grid, sites of bucket b are order[bucketStart[b], bucketStart[b+1])
+	protected final int originX, originY;
+	protected final int bucketSize;
+	protected final int bucketsX, bucketsY;
+	protected final int[] bucketStart;
+	protected final int[] order;
+	
+	public int size() { return xs.length; }
+	public int getX(int site) { return xs[site]; }
+	public int getY(int site) { return ys[site]; }
+	
+	/***
+	 * @param xs not copied
+	 * @param ys not copied
+	 */
+	public CandidateSites(int[] xs, int[] ys) {
+		if(xs.length != ys.length) throw new IllegalArgumentException("Expected as many x as y positions");
+		if(xs.length == 0) throw new IllegalArgumentException("No candidate sites");
+		this.xs = xs;
+		this.ys = ys;
+		
+		int minX = Integer.MAX_VALUE, maxX = Integer.MIN_VALUE;
+		int minY = Integer.MAX_VALUE, maxY = Integer.MIN_VALUE;
+		for(int i = 0; i < xs.length; i++) {
+			minX = Math.min(minX, xs[i]);
+			maxX = Math.max(maxX, xs[i]);
+			minY = Math.min(minY, ys[i]);
+			maxY = Math.max(maxY, ys[i]);
+		}
+		originX = minX;
+		originY = minY;
+		
+		//about two sites per bucket if they were spread evenly
+		long area = (long)(maxX - minX + 1) * (maxY - minY + 1);
+		bucketSize = Math.max(1, (int)Math.sqrt(2.0 * area / xs.length));
+		bucketsX = (maxX - minX) / bucketSize + 1;
+		bucketsY = (maxY - minY) / bucketSize + 1;
+		
+		bucketStart = new int[bucketsX * bucketsY + 1];
+		for(int i = 0; i < xs.length; i++) bucketStart[bucketOf(i) + 1]++;
+		for(int b = 0; b < bucketsX * bucketsY; b++) bucketStart[b + 1] += bucketStart[b];
+		
+		order = new int[xs.length];
+		int[] fill = Arrays.copyOf(bucketStart, bucketStart.length - 1);
+		for(int i = 0; i < xs.length; i++) order[fill[bucketOf(i)]++] = i;
+	}
+	
+	private int bucketOf(int site) {
+		return ((ys[site] - originY) / bucketSize) * bucketsX + (xs[site] - originX) / bucketSize;
+	}
+	
+	/***
+	 * Site closest to (x, y), ties go to the lower site index
+	 * @param x
+	 * @param y
+	 * @return
+	 */
+	public int nearest(int x, int y) {
+		int bx = Math.max(0, Math.min(bucketsX - 1, Math.floorDiv(x - originX, bucketSize)));
+		int by = Math.max(0, Math.min(bucketsY - 1, Math.floorDiv(y - originY, bucketSize)));
+		
+		int best = -1;
+		long bestDist = Long.MAX_VALUE;
+		
+		//search rings of buckets around (bx, by) until no closer site can be further out
+		for(int ring = 0; ; ring++) {
+			if(bx - ring < 0 && by - ring < 0 && bx + ring >= bucketsX && by + ring >= bucketsY) break;
+			
+			for(int ty = by - ring; ty <= by + ring; ty++) {
+				if(ty < 0 || ty >= bucketsY) continue;
+				boolean edgeRow = ty == by - ring || ty == by + ring;
+				int step = edgeRow ? 1 : Math.max(1, 2 * ring);
+				for(int tx = bx - ring; tx <= bx + ring; tx += step) {
+					if(tx < 0 || tx >= bucketsX) continue;
+					int b = ty * bucketsX + tx;
+					for(int k = bucketStart[b]; k < bucketStart[b + 1]; k++) {
+						int site = order[k];
+						long dx = xs[site] - x;
+						long dy = ys[site] - y;
+						long dist = dx * dx + dy * dy;
+						if(dist < bestDist || (dist == bestDist && site < best)) {
+							bestDist = dist;
+							best = site;
+						}
+					}
+				}
+			}
+			
+			//anything in the next ring is at least ring * bucketSize away
+			if(best >= 0) {
+				long reach = (long)ring * bucketSize;
+				if(reach * reach > bestDist) break;
+			}
+		}
+		return best;
+	}
+	
+	/***
+	 * The sites inside region, this when they all are
+	 * @param region
+	 * @return
+	 * @throws IllegalArgumentException if no site is inside region
+	 */
+	public CandidateSites within(Rectangle region) {
+		int count = 0;
+		for(int i = 0; i < xs.length; i++) {
+			if(region.contains(xs[i], ys[i])) count++;
+		}
+		if(count == xs.length) return this;
+		if(count == 0) throw new IllegalArgumentException("No candidate sites in " + region);
+		
+		int[] x = new int[count];
+		int[] y = new int[count];
+		int k = 0;
+		for(int i = 0; i < xs.length; i++) {
+			if(region.contains(xs[i], ys[i])) {
+				x[k] = xs[i];
+				y[k] = ys[i];
+				k++;
+			}
+		}
+		return new CandidateSites(x, y);
+	}
+	
+	/***
+	 * Every non-zero pixel of the mask's first band is a site
+	 * @param mask
+	 * @return
+	 */
+	public static CandidateSites fromMask(BufferedImage mask) {
+		Raster raster = mask.getRaster();
+		int count = 0;
+		for(int y = 0; y < mask.getHeight(); y++) {
+			for(int x = 0; x < mask.getWidth(); x++) {
+				if(raster.getSample(x, y, 0) != 0) count++;
+			}
+		}
+		
+		int[] xs = new int[count];
+		int[] ys = new int[count];
+		int i = 0;
+		for(int y = 0; y < mask.getHeight(); y++) {
+			for(int x = 0; x < mask.getWidth(); x++) {
+				if(raster.getSample(x, y, 0) != 0) {
+					xs[i] = x;
+					ys[i] = y;
+					i++;
+				}
+			}
+		}
+		return new CandidateSites(xs, ys);
+	}
+	
+	/***
+	 * One site per line as x,y. Blank lines, lines starting with # and a 
+	 * header line are skipped.
+	 * @param f
+	 * @return
+	 * @throws IOException
+	 */
+	public static CandidateSites fromCSV(File f) throws IOException {
+		int[] xs = new int[64];
+		int[] ys = new int[64];
+		int count = 0;
+		
+		try(BufferedReader reader = new BufferedReader(new FileReader(f))) {
+			String line;
+			int lineNumber = 0;
+			while((line = reader.readLine()) != null) {
+				lineNumber++;
+				line = line.trim();
+				if(line.isEmpty() || line.startsWith("#")) continue;
+				
+				String[] parts = line.split("[,;\\s]+");
+				try {
+					if(parts.length < 2) throw new NumberFormatException();
+					int x = (int)Math.round(Double.parseDouble(parts[0]));
+					int y = (int)Math.round(Double.parseDouble(parts[1]));
+					if(count == xs.length) {
+						xs = Arrays.copyOf(xs, count * 2);
+						ys = Arrays.copyOf(ys, count * 2);
+					}
+					xs[count] = x;
+					ys[count] = y;
+					count++;
+				} catch(NumberFormatException e) {
+					//allow a header
+					if(count == 0 && lineNumber == 1) continue;
+					throw new IOException(f.getName() + " line " + lineNumber + " : expected x,y but got \"" + line + "\"");
+				}
+			}
+		}
+		return new CandidateSites(Arrays.copyOf(xs, count), Arrays.copyOf(ys, count));
+	}
+	
+	/***
+	 * CSV for .csv and .txt files, a mask image otherwise
+	 * @param f
+	 * @return
+	 * @throws IOException
+	 */
+	public static CandidateSites load(File f) throws IOException {
+		String name = f.getName().toLowerCase();
+		if(name.endsWith(".csv") || name.endsWith(".txt")) return fromCSV(f);
+		
+		BufferedImage mask = ImageIO.read(f);
+		if(mask == null) throw new IOException("Can not read " + f.getName() + " as an image");
+		return fromMask(mask);
+	}
+}
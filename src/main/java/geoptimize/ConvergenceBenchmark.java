@@ -0,0 +1,125 @@
+package geoptimize;
+
+import java.awt.Rectangle;
+import java.io.File;
+import java.io.IOException;
+
+import javax.imageio.ImageIO;
+
+import geoptimize.pso.Distribution;
+import geoptimize.pso.PSOSettings;
+import geoptimize.pso.PSOSimulation;
+import geoptimize.pso.execution.ExecutionMode;
+
+/***
+ * Compares how quickly swarms started from each Distribution converge.
+ * 
+ * Every distribution is run with the same seeds and the best fitness is 
+ * recorded each iteration. The target is a fraction of the best fitness
+ * any run found, and the benchmark reports the mean number of iterations
+ * (and evaluations) each distribution took to reach it.
+ * 
+ * Usage : ConvergenceBenchmark image [x y width height] 
+ *   [-nodes n] [-range r] [-particles p] [-iterations i] [-repeats k] [-target fraction]
+ * 
+ * @author Callan
+ *
+ */
+public class ConvergenceBenchmark {
+	
+	public static void main(String[] args) throws IOException {
+		if(args.length < 1) {
+			System.out.println("Usage : ConvergenceBenchmark image [x y width height] [-nodes n] [-range r] "
+					+ "[-particles p] [-iterations i] [-repeats k] [-target fraction]");
+			return;
+		}
+		
+		GridData grid = new GridData(ImageIO.read(new File(args[0])), true);
+		
+		PSOSettings settings = new PSOSettings();
+		settings.nodes = 5;
+		settings.range = 50;
+		settings.particles = 20;
+		settings.region = new Rectangle(0, 0, grid.width, grid.height);
+		settings.executionMode = ExecutionMode.Sequential;
+		int iterations = 200;
+		int repeats = 5;
+		float target = 0.95f;
+		
+		int a = 1;
+		if(args.length >= 5 && !args[1].startsWith("-")) {
+			settings.region = new Rectangle(
+					Integer.parseInt(args[1]), Integer.parseInt(args[2]), 
+					Integer.parseInt(args[3]), Integer.parseInt(args[4]));
+			a = 5;
+		}
+		for(; a + 1 < args.length; a += 2) {
+			String value = args[a + 1];
+			switch(args[a]) {
+			case "-nodes": settings.nodes = Integer.parseInt(value); break;
+			case "-range": settings.range = Integer.parseInt(value); break;
+			case "-particles": settings.particles = Integer.parseInt(value); break;
+			case "-iterations": iterations = Integer.parseInt(value); break;
+			case "-repeats": repeats = Integer.parseInt(value); break;
+			case "-target": target = Float.parseFloat(value); break;
+			default: throw new IllegalArgumentException("Unknown option " + args[a]);
+			}
+		}
+		
+		Distribution[] distributions = Distribution.values();
+		float[][][] history = new float[distributions.length][repeats][];
+		float best = 0;
+		
+		for(int d = 0; d < distributions.length; d++) {
+			for(int r = 0; r < repeats; r++) {
+				PSOSettings run = settings.copy();
+				run.distribution = distributions[d];
+				run.seed = 1000L + r;
+				history[d][r] = runHistory(run, grid, iterations);
+				best = Math.max(best, history[d][r][iterations]);
+			}
+		}
+		
+		float goal = best * target;
+		System.out.println();
+		System.out.println(String.format("Target : %.0f (%.0f%% of best %.0f), %d runs each", 
+				goal, target * 100, best, repeats));
+		System.out.println("distribution, initial best, final best, reached, mean iterations, mean evaluations");
+		
+		for(int d = 0; d < distributions.length; d++) {
+			double initial = 0, last = 0, iterationSum = 0;
+			int reached = 0;
+			for(int r = 0; r < repeats; r++) {
+				float[] h = history[d][r];
+				initial += h[0];
+				last += h[iterations];
+				for(int i = 0; i <= iterations; i++) {
+					if(h[i] >= goal) {
+						iterationSum += i;
+						reached++;
+						break;
+					}
+				}
+			}
+			double meanIterations = reached == 0 ? Double.NaN : iterationSum / reached;
+			System.out.println(String.format("%s, %.0f, %.0f, %d/%d, %.1f, %.0f",
+					distributions[d], initial / repeats, last / repeats, reached, repeats, 
+					meanIterations, meanIterations * settings.particles));
+		}
+	}
+	
+	/***
+	 * Global best fitness before the first step and after each step
+	 */
+	private static float[] runHistory(PSOSettings settings, GridData grid, int iterations) {
+		float[] history = new float[iterations + 1];
+		PSOSimulation sim = new PSOSimulation(settings, grid);
+		history[0] = sim.getGlobalBest().getFitness();
+		for(int i = 1; i <= iterations; i++) {
+			sim.step();
+			history[i] = sim.getGlobalBest().getFitness();
+		}
+		sim.shutdown();
+		return history;
+	}
+}
@@ -15,10 +15,49 @@ public class GridData {
 	public int height;
 	public int size;
 	
-	//ATM, is the entire image, not just a region
+	//the entire image, unless loaded for a region by RegionLoader
 	public float[] data;
 	
+	//where cell (0, 0) is in the source image. Only non-zero for grids
+	//loaded for a region, everything else works in grid coordinates.
+	public int originX;
+	public int originY;
+	
+	//Optional run-length index of the non-zero cells.
+	//Runs of row y are [rowRuns[y], rowRuns[y+1]), each run covering x in [runStart, runEnd)
+	protected int[] rowRuns;
+	protected int[] runStart;
+	protected int[] runEnd;
+	
+	//levels[k] is the grid sum-pooled to 1/2^k resolution, built on demand
+	private GridData[] levels;
+	
+	//built on demand, shared by everything using this grid
+	private QuadTree quadTree;
+	
 	public GridData(BufferedImage img) {
+		this(img, false);
+	}
+	
+	/***
+	 * Wrap samples that are already in memory, row-major.
+	 * @param width
+	 * @param height
+	 * @param data not copied
+	 */
+	public GridData(int width, int height, float[] data) {
+		if(data.length != width * height) throw new IllegalArgumentException("Expected " + width * height + " samples");
+		this.width = width;
+		this.height = height;
+		this.size = width * height;
+		this.data = data;
+	}
+	
+	/***
+	 * @param img
+	 * @param indexRuns also build the run-length index of populated cells
+	 */
+	public GridData(BufferedImage img, boolean indexRuns) {
 		width = img.getWidth();
 		height = img.getHeight();
 		size = width * height;
@@ -30,6 +69,8 @@ public class GridData {
 		for(int i = 0; i < size; i++) {
 			data[i] = b.getElemFloat(i);
 		}
+		
+		if(indexRuns) buildRunIndex();
 	}
 	
 	
@@ -40,4 +81,150 @@ public class GridData {
 	public float get(int x, int y) {
 		return data[y*width+x];
 	}
+	
+	/***
+	 * Builds the run-length index of non-zero cells. Most of the
+	 * population grid is empty, so fitness functions can skip 
+	 * straight to populated cells.
+	 */
+	public void buildRunIndex() {
+		//count first so the arrays are allocated once
+		int runs = 0;
+		for(int y = 0; y < height; y++) {
+			int row = y * width;
+			for(int x = 0; x < width; x++) {
+				if(data[row + x] != 0 && (x == 0 || data[row + x - 1] == 0)) runs++;
+			}
+		}
+		
+		int[] rows = new int[height + 1];
+		int[] starts = new int[runs];
+		int[] ends = new int[runs];
+		
+		int r = 0;
+		for(int y = 0; y < height; y++) {
+			rows[y] = r;
+			int row = y * width;
+			int x = 0;
+			while(x < width) {
+				if(data[row + x] == 0) { x++; continue; }
+				starts[r] = x;
+				while(x < width && data[row + x] != 0) x++;
+				ends[r] = x;
+				r++;
+			}
+		}
+		rows[height] = r;
+		
+		runStart = starts;
+		runEnd = ends;
+		rowRuns = rows;
+	}
+	
+	public boolean hasRunIndex() { return rowRuns != null; }
+	
+	public int getRunCount() { return hasRunIndex() ? rowRuns[height] : 0; }
+	
+	/***
+	 * Index of the first run of row y that ends after x.
+	 * Iterate while runStart(i) < maxX and i < rowEnd(y).
+	 * @param y
+	 * @param x
+	 * @return
+	 */
+	public int firstRun(int y, int x) {
+		int lo = rowRuns[y];
+		int hi = rowRuns[y + 1];
+		while(lo < hi) {
+			int mid = (lo + hi) >>> 1;
+			if(runEnd[mid] <= x) lo = mid + 1;
+			else hi = mid;
+		}
+		return lo;
+	}
+	
+	public int rowEnd(int y) { return rowRuns[y + 1]; }
+	public int runStart(int run) { return runStart[run]; }
+	public int runEnd(int run) { return runEnd[run]; }
+	
+	/***
+	 * Number of non-zero cells in the indexed rows/columns [x0, x1) x [y0, y1).
+	 * @return
+	 */
+	public long countPopulated(int x0, int y0, int x1, int y1) {
+		long count = 0;
+		for(int y = y0; y < y1; y++) {
+			for(int i = firstRun(y, x0); i < rowEnd(y) && runStart[i] < x1; i++) {
+				count += Math.min(runEnd[i], x1) - Math.max(runStart[i], x0);
+			}
+		}
+		return count;
+	}
+	
+	/***
+	 * Rough heap use of this grid, its run index and anything built from
+	 * it so far (levels, quadtree)
+	 * @return
+	 */
+	public synchronized long getMemoryBytes() {
+		long bytes = 4L * data.length;
+		if(rowRuns != null) bytes += 4L * (rowRuns.length + runStart.length + runEnd.length);
+		if(quadTree != null) bytes += quadTree.getMemoryBytes();
+		if(levels != null) {
+			for(int k = 1; k < levels.length; k++) {
+				if(levels[k] != null) bytes += 4L * levels[k].data.length;
+			}
+		}
+		return bytes;
+	}
+	
+	/***
+	 * Quadtree of this grid's populated cells, built on first use and
+	 * then shared by every fitness function on this grid.
+	 * @return
+	 */
+	public synchronized QuadTree getQuadTree() {
+		if(quadTree == null) quadTree = new QuadTree(this);
+		return quadTree;
+	}
+	
+	/***
+	 * This grid at 1/2^level resolution. Each cell is the sum of the 
+	 * 2^level x 2^level cells it covers (cells past the edge count as 0),
+	 * so total population is preserved at every level.
+	 * Levels are built once and kept, level 0 is this grid.
+	 * @param level
+	 * @return
+	 */
+	public synchronized GridData getLevel(int level) {
+		if(level == 0) return this;
+		if(levels == null || levels.length <= level) {
+			GridData[] grown = new GridData[level + 1];
+			if(levels != null) System.arraycopy(levels, 0, grown, 0, levels.length);
+			grown[0] = this;
+			levels = grown;
+		}
+		if(levels[level] == null) {
+			levels[level] = getLevel(level - 1).halve();
+		}
+		return levels[level];
+	}
+	
+	/***
+	 * 2x2 sum pooling
+	 */
+	private GridData halve() {
+		int w = (width + 1) / 2;
+		int h = (height + 1) / 2;
+		float[] pooled = new float[w * h];
+		for(int y = 0; y < height; y++) {
+			int row = (y / 2) * w;
+			for(int x = 0; x < width; x++) {
+				pooled[row + x / 2] += data[y * width + x];
+			}
+		}
+		GridData g = new GridData(w, h, pooled);
+		if(hasRunIndex()) g.buildRunIndex();
+		return g;
+	}
 }
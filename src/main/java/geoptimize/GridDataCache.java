@@ -0,0 +1,201 @@
+package geoptimize;
+
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+
+import javax.imageio.ImageIO;
+
+/***
+ * Process wide cache of loaded grids, so a population file is only read
+ * and converted once and every simulation shares the same read-only
+ * GridData (and its run index, pyramid and quadtree).
+ * 
+ * Entries are keyed by the file's path, modification time and length,
+ * so a changed file is loaded again. Grids not in memory are read from
+ * their preprocessed GridFile when there is an up to date one, and one is
+ * written after decoding an image, so only the first run pays for ImageIO.
+ * 
+ * Least recently used grids are dropped once the cached grids use more
+ * than the byte budget (a quarter of the maximum heap by default).
+ * Dropped grids stay alive for as long as a simulation still uses them.
+ * 
+ * A get that waits for another thread's load counts as a hit, so misses
+ * is the number of loads.
+ * 
+ * @author Callan
+ *
+ */
+public class GridDataCache {
+	
+	private static final GridDataCache INSTANCE = new GridDataCache(Runtime.getRuntime().maxMemory() / 4);
+	
+	public static GridDataCache getInstance() { return INSTANCE; }
+	
+	//access ordered, guarded by itself
+	private final LinkedHashMap<String, GridData> grids = new LinkedHashMap<String, GridData>(16, 0.75f, true);
+	private final ConcurrentHashMap<String, CompletableFuture<GridData>> loading = 
+			new ConcurrentHashMap<String, CompletableFuture<GridData>>();
+	
+	private volatile long budgetBytes;
+	private volatile boolean useGridFiles = true;
+	private long hits;
+	private long misses;
+	
+	public GridDataCache(long budgetBytes) {
+		this.budgetBytes = budgetBytes;
+	}
+	
+	public void setBudgetBytes(long bytes) {
+		budgetBytes = bytes;
+		synchronized(grids) {
+			evict(null);
+		}
+	}
+	
+	public long getBudgetBytes() { return budgetBytes; }
+	public boolean getUseGridFiles() { return useGridFiles; }
+	public void setUseGridFiles(boolean use) { useGridFiles = use; }
+	public synchronized long getHits() { return hits; }
+	public synchronized long getMisses() { return misses; }
+	
+	/***
+	 * The grid for an image file, loaded (with a run index) if it is not cached
+	 * @param f
+	 * @return
+	 * @throws IOException
+	 */
+	public GridData get(File f) throws IOException {
+		return get(f, null);
+	}
+	
+	/***
+	 * The grid for an image file. If it is not cached it is built from
+	 * img when given (an already read copy of f), otherwise f is read.
+	 * @param f
+	 * @param img
+	 * @return
+	 * @throws IOException
+	 */
+	public GridData get(File f, BufferedImage img) throws IOException {
+		String key = key(f);
+		GridData cached = cached(key);
+		if(cached != null) return cached;
+		
+		//one load per file, other threads wait for it
+		CompletableFuture<GridData> mine = new CompletableFuture<GridData>();
+		CompletableFuture<GridData> running = loading.putIfAbsent(key, mine);
+		if(running != null) {
+			GridData grid;
+			try {
+				grid = running.join();
+			} catch(CompletionException e) {
+				if(e.getCause() instanceof IOException) throw (IOException)e.getCause();
+				throw e;
+			}
+			synchronized(this) { hits++; }
+			return grid;
+		}
+		
+		try {
+			//a load may have finished between the first look and putting mine
+			cached = cached(key);
+			if(cached != null) {
+				mine.complete(cached);
+				return cached;
+			}
+			
+			synchronized(this) { misses++; }
+			long start = System.nanoTime();
+			GridData grid = useGridFiles ? GridFile.readCached(f) : null;
+			if(grid != null) {
+				grid.buildRunIndex();
+			} else {
+				if(img == null) img = ImageIO.read(f);
+				if(img == null) throw new IOException("Can not read " + f + " as an image");
+				grid = new GridData(img, true);
+				if(useGridFiles) GridFile.writeCached(f, grid);
+			}
+			System.out.println(String.format("Loaded grid %s (%dx%d) in %.2fs", 
+					f.getName(), grid.width, grid.height, (System.nanoTime() - start) / 1e9));
+			
+			synchronized(grids) {
+				grids.put(key, grid);
+				evict(key);
+			}
+			mine.complete(grid);
+			return grid;
+		} catch(IOException | RuntimeException e) {
+			mine.completeExceptionally(e);
+			throw e;
+		} finally {
+			loading.remove(key, mine);
+		}
+	}
+	
+	/***
+	 * The cached grid, counted as a hit, or null
+	 */
+	private GridData cached(String key) {
+		GridData grid;
+		synchronized(grids) {
+			grid = grids.get(key);
+		}
+		if(grid != null) {
+			synchronized(this) { hits++; }
+		}
+		return grid;
+	}
+	
+	public void clear() {
+		synchronized(grids) {
+			grids.clear();
+		}
+	}
+	
+	public int size() {
+		synchronized(grids) {
+			return grids.size();
+		}
+	}
+	
+	/***
+	 * Bytes used by the cached grids
+	 */
+	public long getMemoryBytes() {
+		synchronized(grids) {
+			long bytes = 0;
+			for(GridData g : grids.values()) bytes += g.getMemoryBytes();
+			return bytes;
+		}
+	}
+	
+	/***
+	 * Drop least recently used grids until under budget. keep is never
+	 * dropped, so a grid bigger than the budget is still cached on its own.
+	 */
+	private void evict(String keep) {
+		long bytes = 0;
+		for(GridData g : grids.values()) bytes += g.getMemoryBytes();
+		
+		Iterator<Map.Entry<String, GridData>> it = grids.entrySet().iterator();
+		while(bytes > budgetBytes && it.hasNext()) {
+			Map.Entry<String, GridData> eldest = it.next();
+			if(eldest.getKey().equals(keep)) continue;
+			bytes -= eldest.getValue().getMemoryBytes();
+			System.out.println("Dropping cached grid " + eldest.getKey());
+			it.remove();
+		}
+	}
+	
+	private static String key(File f) throws IOException {
+		if(!f.isFile()) throw new IOException("No such file " + f);
+		return f.getCanonicalPath() + "|" + f.lastModified() + "|" + f.length();
+	}
+}
@@ -0,0 +1,230 @@
+package geoptimize;
+
+import java.awt.Rectangle;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.ShortBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+
+/***
+ * Preprocessed grid files, so an image only has to be decoded once.
+ * 
+ * Layout (little endian):
+ *   int magic 'GRD1', int width, int height, int sample type (0 uint16, 1 float32),
+ *   long source length, long source modification time,
+ *   then width * height samples, row by row.
+ * 
+ * Grids with whole numbers in [0, 65535] (the usual population grids) are
+ * stored as uint16, anything else as float32. Files are memory mapped when
+ * read only to skip decoding the image, the samples are still copied into
+ * a GridData of the JVM's own. The source length and modification time in
+ * the header make a stale file get rebuilt when the image changes.
+ * 
+ * Files are kept in a cache folder (the geoptimize.gridCache system 
+ * property, or geoptimize-grids in the temp folder), never next to the image.
+ * 
+ * @author Callan
+ *
+ */
+public class GridFile {
+	
+	public static final int MAGIC = 0x31445247; //"GRD1" little endian
+	public static final int HEADER_BYTES = 32;
+	
+	public static final int UINT16 = 0;
+	public static final int FLOAT32 = 1;
+	
+	/***
+	 * Folder preprocessed grids are kept in
+	 */
+	public static File getCacheDirectory() {
+		String dir = System.getProperty("geoptimize.gridCache");
+		if(dir != null) return new File(dir);
+		return new File(System.getProperty("java.io.tmpdir"), "geoptimize-grids");
+	}
+	
+	/***
+	 * Where the preprocessed copy of an image is kept, named after a hash
+	 * of its full path so images with the same name do not collide.
+	 * @param source
+	 * @return
+	 * @throws IOException
+	 */
+	public static File cacheFileFor(File source) throws IOException {
+		//64 bit FNV-1a
+		long hash = 0xcbf29ce484222325L;
+		for(char c : source.getCanonicalPath().toCharArray()) {
+			hash = (hash ^ c) * 0x100000001b3L;
+		}
+		return new File(getCacheDirectory(), Long.toHexString(hash) + "-" + source.getName() + ".grid");
+	}
+	
+	/***
+	 * The preprocessed grid for source, or null if there is none or it
+	 * was made from a different version of the source.
+	 * @param source
+	 * @return
+	 * @throws IOException
+	 */
+	public static GridData readCached(File source) throws IOException {
+		File f = cacheFileFor(source);
+		if(!f.isFile()) return null;
+		return read(f, source.length(), source.lastModified());
+	}
+	
+	/***
+	 * Only the cells of area from the preprocessed grid for source,
+	 * or null if there is none or it is stale. See read.
+	 * @param source
+	 * @param area in source image coordinates
+	 * @return
+	 * @throws IOException
+	 */
+	public static GridData readCachedRegion(File source, Rectangle area) throws IOException {
+		File f = cacheFileFor(source);
+		if(!f.isFile()) return null;
+		return read(f, source.length(), source.lastModified(), area);
+	}
+	
+	/***
+	 * Store a preprocessed copy of grid for source. Failing to write it
+	 * is not fatal, the grid just gets decoded again next time.
+	 * @param source
+	 * @param grid
+	 */
+	public static void writeCached(File source, GridData grid) {
+		try {
+			File f = cacheFileFor(source);
+			Files.createDirectories(f.getParentFile().toPath());
+			write(f, grid, source.length(), source.lastModified());
+		} catch(IOException e) {
+			System.out.println("Could not write grid cache for " + source + ": " + e.getMessage());
+		}
+	}
+	
+	/***
+	 * Read a grid file, if its header matches the given source stamps
+	 * @param f
+	 * @param sourceLength
+	 * @param sourceModified
+	 * @return the grid, or null if the file is stale or not a grid file
+	 * @throws IOException
+	 */
+	public static GridData read(File f, long sourceLength, long sourceModified) throws IOException {
+		return read(f, sourceLength, sourceModified, null);
+	}
+	
+	/***
+	 * Read the cells of area (clipped to the grid, the whole grid when null)
+	 * from a grid file. Only the pages holding those rows are touched. The
+	 * grid's origin is set to the corner of the clipped area.
+	 * @param f
+	 * @param sourceLength
+	 * @param sourceModified
+	 * @param area
+	 * @return the grid, or null if the file is stale or not a grid file
+	 * @throws IOException
+	 */
+	public static GridData read(File f, long sourceLength, long sourceModified, Rectangle area) throws IOException {
+		try(FileChannel channel = FileChannel.open(f.toPath(), StandardOpenOption.READ)) {
+			long length = channel.size();
+			if(length < HEADER_BYTES) return null;
+			
+			MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, length);
+			buffer.order(ByteOrder.LITTLE_ENDIAN);
+			
+			int magic = buffer.getInt(0);
+			int width = buffer.getInt(4);
+			int height = buffer.getInt(8);
+			int type = buffer.getInt(12);
+			if(magic != MAGIC || width <= 0 || height <= 0) return null;
+			if(buffer.getLong(16) != sourceLength || buffer.getLong(24) != sourceModified) return null;
+			
+			long size = (long)width * height;
+			long bytes = HEADER_BYTES + size * (type == UINT16 ? 2 : 4);
+			if((type != UINT16 && type != FLOAT32) || size > Integer.MAX_VALUE || length != bytes) return null;
+			
+			Rectangle cells = new Rectangle(0, 0, width, height);
+			if(area != null) cells = cells.intersection(area);
+			if(cells.isEmpty()) throw new IOException("Region " + area + " is outside the " + width + "x" + height + " grid");
+			
+			float[] data = new float[cells.width * cells.height];
+			buffer.position(HEADER_BYTES);
+			if(type == UINT16) {
+				ShortBuffer samples = buffer.slice().order(ByteOrder.LITTLE_ENDIAN).asShortBuffer();
+				for(int y = 0; y < cells.height; y++) {
+					int src = (cells.y + y) * width + cells.x;
+					int dst = y * cells.width;
+					for(int x = 0; x < cells.width; x++) data[dst + x] = samples.get(src + x) & 0xFFFF;
+				}
+			} else {
+				FloatBuffer samples = buffer.slice().order(ByteOrder.LITTLE_ENDIAN).asFloatBuffer();
+				for(int y = 0; y < cells.height; y++) {
+					samples.position((cells.y + y) * width + cells.x);
+					samples.get(data, y * cells.width, cells.width);
+				}
+			}
+			GridData grid = new GridData(cells.width, cells.height, data);
+			grid.originX = cells.x;
+			grid.originY = cells.y;
+			return grid;
+		}
+	}
+	
+	/***
+	 * Write grid to f. The file is written next to f and moved into place,
+	 * so a reader never sees half a file.
+	 * @param f
+	 * @param grid
+	 * @param sourceLength
+	 * @param sourceModified
+	 * @throws IOException
+	 */
+	public static void write(File f, GridData grid, long sourceLength, long sourceModified) throws IOException {
+		int type = isUInt16(grid.data) ? UINT16 : FLOAT32;
+		long bytes = HEADER_BYTES + (long)grid.data.length * (type == UINT16 ? 2 : 4);
+		
+		File tmp = new File(f.getPath() + ".tmp");
+		try(FileChannel channel = FileChannel.open(tmp.toPath(), 
+				StandardOpenOption.READ, StandardOpenOption.WRITE,
+				StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING)) {
+			
+			MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, bytes);
+			buffer.order(ByteOrder.LITTLE_ENDIAN);
+			buffer.putInt(MAGIC);
+			buffer.putInt(grid.width);
+			buffer.putInt(grid.height);
+			buffer.putInt(type);
+			buffer.putLong(sourceLength);
+			buffer.putLong(sourceModified);
+			
+			if(type == UINT16) {
+				ShortBuffer samples = buffer.slice().order(ByteOrder.LITTLE_ENDIAN).asShortBuffer();
+				for(float v : grid.data) samples.put((short)(int)v);
+			} else {
+				buffer.slice().order(ByteOrder.LITTLE_ENDIAN).asFloatBuffer().put(grid.data);
+			}
+			buffer.force();
+		}
+		
+		try {
+			Files.move(tmp.toPath(), f.toPath(), StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+		} catch(AtomicMoveNotSupportedException e) {
+			Files.move(tmp.toPath(), f.toPath(), StandardCopyOption.REPLACE_EXISTING);
+		}
+	}
+	
+	private static boolean isUInt16(float[] data) {
+		for(float v : data) {
+			if(v < 0 || v > 65535 || v != (int)v) return false;
+		}
+		return true;
+	}
+}
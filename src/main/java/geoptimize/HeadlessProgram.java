@@ -0,0 +1,341 @@
+package geoptimize;
+
+import java.awt.Rectangle;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStreamWriter;
+import java.io.PrintStream;
+import java.io.PrintWriter;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Properties;
+
+import geoptimize.pso.Distribution;
+import geoptimize.pso.PSOSettings;
+import geoptimize.pso.PSOSimulation;
+import geoptimize.pso.PSOSolution;
+import geoptimize.pso.execution.ExecutionMode;
+import geoptimize.pso.fitness.FitnessType;
+import geoptimize.pso.stopping.StagnationCriterion;
+import geoptimize.pso.stopping.StoppingCriterion;
+import geoptimize.pso.stopping.TargetFitnessCriterion;
+import geoptimize.pso.stopping.TimeBudgetCriterion;
+
+/***
+ * Runs one optimization without the Swing window, for servers and scripts.
+ * Steps as fast as it can and writes the best solution, the best fitness
+ * after every iteration and timings as JSON or CSV.
+ * 
+ * Options are "-key value" pairs, or a properties file with the same keys
+ * given by -config (command line values win). The grid can also be the
+ * first argument.
+ * 
+ *   grid          population image (required)
+ *   region        x,y,width,height (default whole grid)
+ *   margin        only load the region plus this many cells around it (see RegionLoader)
+ *   nodes, range, particles, iterations
+ *   localBestWeight, globalBestWeight, inertia
+ *   fitness       FitnessType, execution  ExecutionMode, distribution  Distribution
+ *   seed          random seed
+ *   pruning       true to skip evaluations the upper bound rules out
+ *   stagnation    stop after this many iterations without improvement
+ *   target        stop once this fitness is reached
+ *   time          stop after this many seconds
+ *   output        file to write, stdout when missing
+ *   format        json or csv (default from the output extension, else json)
+ * 
+ * Started with Program -headless ... or directly.
+ * 
+ * @author Callan
+ *
+ */
+public class HeadlessProgram {
+	
+	public static void main(String[] args) throws IOException {
+		System.setProperty("java.awt.headless", "true");
+		
+		Properties options;
+		try {
+			options = parseArguments(args);
+		} catch(IllegalArgumentException e) {
+			System.err.println(e.getMessage());
+			printUsage();
+			System.exit(1);
+			return;
+		}
+		if(options.getProperty("grid") == null) {
+			printUsage();
+			System.exit(1);
+			return;
+		}
+		
+		//results go to stdout when there is no output file, so send logging to stderr
+		PrintStream stdout = System.out;
+		String output = options.getProperty("output");
+		if(output == null) System.setOut(System.err);
+		
+		long loadStart = System.nanoTime();
+		GridData grid = loadGrid(options);
+		long loadNanos = System.nanoTime() - loadStart;
+		
+		PSOSettings settings = createSettings(options, grid);
+		int iterations = Integer.parseInt(options.getProperty("iterations", "100"));
+		List<StoppingCriterion> criteria = createCriteria(options);
+		
+		long setupStart = System.nanoTime();
+		PSOSimulation sim = new PSOSimulation(settings, grid);
+		long setupNanos = System.nanoTime() - setupStart;
+		
+		//best fitness before the first step and after each one
+		float[] history = new float[iterations + 1];
+		long[] elapsed = new long[iterations + 1];
+		history[0] = sim.getGlobalBest().getFitness();
+		
+		for(StoppingCriterion c : criteria) c.reset();
+		long runStart = System.nanoTime();
+		String reason = null;
+		int done = 0;
+		while(done < iterations) {
+			sim.step();
+			done++;
+			history[done] = sim.getGlobalBest().getFitness();
+			elapsed[done] = System.nanoTime() - runStart;
+			
+			reason = StoppingCriterion.checkAll(criteria, sim);
+			if(reason != null) break;
+		}
+		if(reason == null) reason = "Iteration limit " + iterations + " reached";
+		sim.setStopReason(reason);
+		long runNanos = System.nanoTime() - runStart;
+		sim.shutdown();
+		
+		Result result = new Result();
+		result.settings = settings;
+		result.grid = options.getProperty("grid");
+		result.gridData = grid;
+		result.best = sim.getGlobalBest();
+		result.history = history;
+		result.elapsedNanos = elapsed;
+		result.iterations = done;
+		result.stopReason = reason;
+		result.loadNanos = loadNanos;
+		result.setupNanos = setupNanos;
+		result.runNanos = runNanos;
+		result.evaluations = sim.getStatistics().getEvaluations();
+		result.pruned = sim.getStatistics().getPruned();
+		
+		String format = options.getProperty("format", 
+				output != null && output.toLowerCase().endsWith(".csv") ? "csv" : "json");
+		
+		try(Writer w = output == null ? new OutputStreamWriter(stdout) : new FileWriter(output);
+			PrintWriter out = new PrintWriter(w)) {
+			if(format.equalsIgnoreCase("csv")) {
+				result.writeCSV(out);
+			} else {
+				result.writeJSON(out);
+			}
+		}
+		if(output != null) System.out.println("Wrote " + output + " : " + reason);
+	}
+	
+	private static void printUsage() {
+		System.err.println("Usage : HeadlessProgram grid [-config file] [-region x,y,w,h [-margin m]] [-nodes n] [-range r] "
+				+ "[-particles p] [-iterations i] [-localBestWeight w] [-globalBestWeight w] [-inertia w] "
+				+ "[-fitness type] [-execution mode] [-distribution d] [-seed s] [-pruning true|false] "
+				+ "[-stagnation i] [-target fitness] [-time seconds] [-output file] [-format json|csv]");
+	}
+	
+	/***
+	 * Command line to options. "-config file" is loaded first, so values
+	 * given on the command line replace the file's.
+	 * @param args
+	 * @return
+	 * @throws IOException
+	 */
+	public static Properties parseArguments(String[] args) throws IOException {
+		Properties command = new Properties();
+		int a = 0;
+		if(args.length > 0 && !args[0].startsWith("-")) command.setProperty("grid", args[a++]);
+		for(; a < args.length; a += 2) {
+			if(!args[a].startsWith("-") || a + 1 >= args.length) {
+				throw new IllegalArgumentException("Expected -option value at " + args[a]);
+			}
+			command.setProperty(args[a].substring(1), args[a + 1]);
+		}
+		
+		Properties options = new Properties();
+		String config = command.getProperty("config");
+		if(config != null) {
+			try(InputStream in = new FileInputStream(config)) {
+				options.load(in);
+			}
+		}
+		options.putAll(command);
+		return options;
+	}
+	
+	public static GridData loadGrid(File f) throws IOException {
+		return GridDataCache.getInstance().get(f);
+	}
+	
+	/***
+	 * The whole grid, or only the region and its margin when both are given
+	 * @param options
+	 * @return
+	 * @throws IOException
+	 */
+	public static GridData loadGrid(Properties options) throws IOException {
+		File f = new File(options.getProperty("grid"));
+		if(options.getProperty("region") == null || options.getProperty("margin") == null) return loadGrid(f);
+		return RegionLoader.load(f, parseRegion(options.getProperty("region")), Integer.parseInt(options.getProperty("margin")));
+	}
+	
+	private static Rectangle parseRegion(String region) {
+		String[] parts = region.split(",");
+		if(parts.length != 4) throw new IllegalArgumentException("region should be x,y,width,height");
+		return new Rectangle(
+				Integer.parseInt(parts[0].trim()), Integer.parseInt(parts[1].trim()), 
+				Integer.parseInt(parts[2].trim()), Integer.parseInt(parts[3].trim()));
+	}
+	
+	/***
+	 * Settings from options, anything missing keeps the PSOSettings default
+	 * @param options
+	 * @param grid used for the default region. The region option is in image
+	 * coordinates, and is moved into the grid's when it was loaded for a region.
+	 * @return
+	 */
+	public static PSOSettings createSettings(Properties options, GridData grid) {
+		PSOSettings s = new PSOSettings();
+		s.nodes = Integer.parseInt(options.getProperty("nodes", "5"));
+		s.range = Integer.parseInt(options.getProperty("range", "50"));
+		s.particles = Integer.parseInt(options.getProperty("particles", "20"));
+		s.localBestWeight = Float.parseFloat(options.getProperty("localBestWeight", "" + s.localBestWeight));
+		s.globalBestWeight = Float.parseFloat(options.getProperty("globalBestWeight", "" + s.globalBestWeight));
+		s.inertia = Float.parseFloat(options.getProperty("inertia", "" + s.inertia));
+		s.fitnessType = FitnessType.valueOf(options.getProperty("fitness", s.fitnessType.name()));
+		s.executionMode = ExecutionMode.valueOf(options.getProperty("execution", s.executionMode.name()));
+		s.distribution = Distribution.valueOf(options.getProperty("distribution", s.distribution.name()));
+		if(options.getProperty("seed") != null) s.seed = Long.parseLong(options.getProperty("seed"));
+		s.upperBoundPruning = Boolean.parseBoolean(options.getProperty("pruning", "" + s.upperBoundPruning));
+		
+		String region = options.getProperty("region");
+		if(region == null) {
+			s.region = new Rectangle(0, 0, grid.width, grid.height);
+		} else {
+			s.region = RegionLoader.toGrid(grid, parseRegion(region));
+		}
+		return s;
+	}
+	
+	public static List<StoppingCriterion> createCriteria(Properties options) {
+		List<StoppingCriterion> criteria = new ArrayList<StoppingCriterion>();
+		if(options.getProperty("stagnation") != null) {
+			criteria.add(new StagnationCriterion(Integer.parseInt(options.getProperty("stagnation"))));
+		}
+		if(options.getProperty("target") != null) {
+			criteria.add(new TargetFitnessCriterion(Float.parseFloat(options.getProperty("target"))));
+		}
+		if(options.getProperty("time") != null) {
+			criteria.add(new TimeBudgetCriterion((long)(Double.parseDouble(options.getProperty("time")) * 1000)));
+		}
+		return criteria;
+	}
+	
+	/***
+	 * JSON has no NaN or infinity, so those are written as null
+	 * @param value
+	 * @return
+	 */
+	public static String jsonNumber(float value) {
+		if(Float.isNaN(value) || Float.isInfinite(value)) return "null";
+		return Float.toString(value);
+	}
+	
+	/***
+	 * Everything written out at the end of a run
+	 */
+	static class Result {
+		PSOSettings settings;
+		String grid;
+		//positions are written in image coordinates, i.e. offset by its origin
+		GridData gridData;
+		PSOSolution best;
+		float[] history;
+		long[] elapsedNanos;
+		int iterations;
+		String stopReason;
+		long loadNanos, setupNanos, runNanos;
+		long evaluations, pruned;
+		
+		void writeJSON(PrintWriter out) {
+			Rectangle r = RegionLoader.toImage(gridData, settings.region);
+			out.println("{");
+			out.println("  \"grid\": " + quote(grid) + ",");
+			out.println(String.format(Locale.ROOT, 
+					"  \"settings\": {\"region\": [%d, %d, %d, %d], \"nodes\": %d, \"range\": %d, \"particles\": %d, "
+					+ "\"localBestWeight\": %s, \"globalBestWeight\": %s, \"inertia\": %s, "
+					+ "\"fitness\": \"%s\", \"execution\": \"%s\", \"distribution\": \"%s\", \"seed\": %s},",
+					r.x, r.y, r.width, r.height, settings.nodes, settings.range, settings.particles,
+					jsonNumber(settings.localBestWeight), jsonNumber(settings.globalBestWeight), jsonNumber(settings.inertia),
+					settings.fitnessType, settings.executionMode, settings.distribution, settings.seed));
+			out.println("  \"fitness\": " + jsonNumber(best.getFitness()) + ",");
+			out.print("  \"nodes\": [");
+			for(int i = 0; i < best.size(); i++) {
+				if(i > 0) out.print(", ");
+				out.print("{\"x\": " + (best.getX(i) + gridData.originX) + ", \"y\": " + (best.getY(i) + gridData.originY) 
+						+ ", \"range\": " + best.getRange(i) + "}");
+			}
+			out.println("],");
+			out.println("  \"iterations\": " + iterations + ",");
+			out.println("  \"stopReason\": " + quote(stopReason) + ",");
+			out.println(String.format(Locale.ROOT, 
+					"  \"timings\": {\"loadSeconds\": %.6f, \"setupSeconds\": %.6f, \"runSeconds\": %.6f, "
+					+ "\"evaluations\": %d, \"pruned\": %d, \"evaluationsPerSecond\": %.1f},",
+					loadNanos / 1e9, setupNanos / 1e9, runNanos / 1e9, evaluations, pruned,
+					runNanos == 0 ? 0 : evaluations * 1e9 / runNanos));
+			out.print("  \"history\": [");
+			for(int i = 0; i <= iterations; i++) {
+				if(i > 0) out.print(", ");
+				out.print(String.format(Locale.ROOT, "{\"iteration\": %d, \"fitness\": %s, \"seconds\": %.6f}", 
+						i, jsonNumber(history[i]), elapsedNanos[i] / 1e9));
+			}
+			out.println("]");
+			out.println("}");
+		}
+		
+		/***
+		 * Summary as # comments, then the nodes, then the history
+		 */
+		void writeCSV(PrintWriter out) {
+			Rectangle r = RegionLoader.toImage(gridData, settings.region);
+			out.println("# grid=" + grid);
+			out.println("# region=" + r.x + "," + r.y + "," + r.width + "," + r.height);
+			out.println("# fitness=" + best.getFitness());
+			out.println("# iterations=" + iterations);
+			out.println("# stopReason=" + stopReason);
+			out.println(String.format(Locale.ROOT, "# loadSeconds=%.6f", loadNanos / 1e9));
+			out.println(String.format(Locale.ROOT, "# setupSeconds=%.6f", setupNanos / 1e9));
+			out.println(String.format(Locale.ROOT, "# runSeconds=%.6f", runNanos / 1e9));
+			out.println("# evaluations=" + evaluations + ", pruned=" + pruned);
+			out.println("node,x,y,range");
+			for(int i = 0; i < best.size(); i++) {
+				out.println(i + "," + (best.getX(i) + gridData.originX) + "," + (best.getY(i) + gridData.originY) + "," + best.getRange(i));
+			}
+			out.println();
+			out.println("iteration,fitness,seconds");
+			for(int i = 0; i <= iterations; i++) {
+				out.println(String.format(Locale.ROOT, "%d,%s,%.6f", i, history[i], elapsedNanos[i] / 1e9));
+			}
+		}
+		
+		private static String quote(String s) {
+			return "\"" + s.replace("\\", "\\\\").replace("\"", "\\\"") + "\"";
+		}
+	}
+}
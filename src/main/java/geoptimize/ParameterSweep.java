@@ -0,0 +1,253 @@
+package geoptimize;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Properties;
+import java.util.Random;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import geoptimize.pso.PSOSettings;
+import geoptimize.pso.PSOSimulation;
+import geoptimize.pso.execution.ExecutionMode;
+import geoptimize.pso.execution.PSOExecutor;
+import geoptimize.pso.stopping.StoppingCriterion;
+
+/***
+ * Runs many independent simulations over a grid of parameter values (or a
+ * random search), R seeded repeats each, on a fixed pool of threads that
+ * all share one loaded GridData. Each simulation runs sequentially, so the
+ * pool size is the number of cores used.
+ * 
+ * Options are the same as HeadlessProgram, except the swept parameters 
+ * (localBestWeight, globalBestWeight, inertia, particles, nodes, range) can
+ * be lists, e.g. -inertia 0.5,0.7,0.9, or min:max ranges with -samples.
+ * 
+ *   repeats   runs per configuration, seeds seed, seed + 1, ... (default 5)
+ *   samples   random search with this many configurations instead of the full grid
+ *   threads   pool size (default one per core)
+ *   output    CSV of every run, written as runs finish (default sweep.csv)
+ *   summary   CSV of mean and variance per configuration (default stdout only)
+ * 
+ * @author Callan
+ *
+ */
+public class ParameterSweep {
+	
+	public static final String[] PARAMETERS = { 
+			"localBestWeight", "globalBestWeight", "inertia", "particles", "nodes", "range" };
+	
+	/***
+	 * One finished run
+	 */
+	static class Run {
+		int configuration;
+		int repeat;
+		long seed;
+		float fitness;
+		int iterations;
+		double seconds;
+		long evaluations;
+	}
+	
+	public static void main(String[] args) throws IOException, InterruptedException {
+		System.setProperty("java.awt.headless", "true");
+		Properties options = HeadlessProgram.parseArguments(args);
+		if(options.getProperty("grid") == null) {
+			System.err.println("Usage : ParameterSweep grid [HeadlessProgram options] [-inertia 0.5,0.9] "
+					+ "[-particles 10:50 -samples n] [-repeats r] [-threads t] [-output runs.csv] [-summary summary.csv]");
+			System.exit(1);
+		}
+		
+		GridData grid = HeadlessProgram.loadGrid(new File(options.getProperty("grid")));
+		int iterations = Integer.parseInt(options.getProperty("iterations", "100"));
+		int repeats = Integer.parseInt(options.getProperty("repeats", "5"));
+		int threads = Integer.parseInt(options.getProperty("threads", "" + PSOExecutor.defaultThreads()));
+		long baseSeed = Long.parseLong(options.getProperty("seed", "1"));
+		
+		List<Properties> configurations = options.getProperty("samples") != null ?
+				randomConfigurations(options, Integer.parseInt(options.getProperty("samples")), new Random(baseSeed)) :
+				gridConfigurations(options);
+		System.out.println("Sweep : " + configurations.size() + " configurations x " + repeats 
+				+ " repeats on " + threads + " threads");
+		
+		String output = options.getProperty("output", "sweep.csv");
+		List<List<Run>> results = new ArrayList<List<Run>>();
+		for(int c = 0; c < configurations.size(); c++) results.add(new ArrayList<Run>());
+		
+		ExecutorService pool = Executors.newFixedThreadPool(threads);
+		try(PrintWriter out = new PrintWriter(new FileWriter(output))) {
+			out.println("configuration," + String.join(",", PARAMETERS) 
+					+ ",repeat,seed,fitness,iterations,seconds,evaluations");
+			out.flush();
+			
+			ExecutorCompletionService<Run> completion = new ExecutorCompletionService<Run>(pool);
+			for(int c = 0; c < configurations.size(); c++) {
+				for(int r = 0; r < repeats; r++) {
+					int configuration = c;
+					int repeat = r;
+					Properties values = configurations.get(c);
+					completion.submit(() -> run(grid, values, configuration, repeat, baseSeed + repeat, iterations));
+				}
+			}
+			
+			int total = configurations.size() * repeats;
+			for(int done = 0; done < total; done++) {
+				Run run;
+				try {
+					run = completion.take().get();
+				} catch(ExecutionException e) {
+					throw new RuntimeException(e.getCause());
+				}
+				results.get(run.configuration).add(run);
+				
+				out.println(run.configuration + "," + values(configurations.get(run.configuration), grid) 
+						+ String.format(Locale.ROOT, ",%d,%d,%s,%d,%.6f,%d", 
+								run.repeat, run.seed, run.fitness, run.iterations, run.seconds, run.evaluations));
+				out.flush();
+			}
+		} finally {
+			pool.shutdownNow();
+		}
+		
+		String summary = options.getProperty("summary");
+		try(PrintWriter out = summary == null ? null : new PrintWriter(new FileWriter(summary))) {
+			String header = "configuration," + String.join(",", PARAMETERS) 
+					+ ",runs,fitness mean,fitness variance,seconds mean,seconds variance";
+			System.out.println(header);
+			if(out != null) out.println(header);
+			
+			for(int c = 0; c < configurations.size(); c++) {
+				List<Run> runs = results.get(c);
+				double[] fitness = new double[runs.size()];
+				double[] seconds = new double[runs.size()];
+				for(int i = 0; i < runs.size(); i++) {
+					fitness[i] = runs.get(i).fitness;
+					seconds[i] = runs.get(i).seconds;
+				}
+				String line = c + "," + values(configurations.get(c), grid) + String.format(Locale.ROOT, 
+						",%d,%.3f,%.3f,%.6f,%.6f", runs.size(), 
+						mean(fitness), variance(fitness), mean(seconds), variance(seconds));
+				System.out.println(line);
+				if(out != null) out.println(line);
+			}
+		}
+		System.out.println("Runs written to " + output);
+	}
+	
+	private static Run run(GridData grid, Properties values, int configuration, int repeat, long seed, int iterations) {
+		PSOSettings settings = HeadlessProgram.createSettings(values, grid);
+		settings.executionMode = ExecutionMode.Sequential;
+		settings.seed = seed;
+		List<StoppingCriterion> criteria = HeadlessProgram.createCriteria(values);
+		
+		long start = System.nanoTime();
+		PSOSimulation sim = new PSOSimulation(settings, grid);
+		sim.run(iterations, criteria);
+		sim.shutdown();
+		
+		Run run = new Run();
+		run.configuration = configuration;
+		run.repeat = repeat;
+		run.seed = seed;
+		run.fitness = sim.getGlobalBest().getFitness();
+		run.iterations = sim.getCurrentIteration();
+		run.seconds = (System.nanoTime() - start) / 1e9;
+		run.evaluations = sim.getStatistics().getEvaluations();
+		return run;
+	}
+	
+	/***
+	 * Every combination of the listed values of the swept parameters
+	 */
+	public static List<Properties> gridConfigurations(Properties options) {
+		List<Properties> configurations = new ArrayList<Properties>();
+		configurations.add(copy(options));
+		
+		for(String p : PARAMETERS) {
+			String value = options.getProperty(p);
+			if(value == null) continue;
+			
+			List<Properties> expanded = new ArrayList<Properties>();
+			for(Properties c : configurations) {
+				for(String v : value.split(",")) {
+					Properties next = copy(c);
+					next.setProperty(p, v.trim());
+					expanded.add(next);
+				}
+			}
+			configurations = expanded;
+		}
+		return configurations;
+	}
+	
+	/***
+	 * Random configurations. Parameters given as min:max are drawn uniformly
+	 * (whole numbers for particles, nodes and range), lists pick one value.
+	 */
+	public static List<Properties> randomConfigurations(Properties options, int samples, Random random) {
+		List<Properties> configurations = new ArrayList<Properties>();
+		for(int s = 0; s < samples; s++) {
+			Properties c = copy(options);
+			for(String p : PARAMETERS) {
+				String value = options.getProperty(p);
+				if(value == null) continue;
+				
+				if(value.contains(":")) {
+					String[] bounds = value.split(":");
+					double min = Double.parseDouble(bounds[0]);
+					double max = Double.parseDouble(bounds[1]);
+					if(p.equals("particles") || p.equals("nodes") || p.equals("range")) {
+						c.setProperty(p, "" + ((int)min + random.nextInt((int)max - (int)min + 1)));
+					} else {
+						c.setProperty(p, String.format(Locale.ROOT, "%.4f", min + random.nextDouble() * (max - min)));
+					}
+				} else {
+					String[] choices = value.split(",");
+					c.setProperty(p, choices[random.nextInt(choices.length)].trim());
+				}
+			}
+			configurations.add(c);
+		}
+		return configurations;
+	}
+	
+	private static Properties copy(Properties p) {
+		Properties c = new Properties();
+		c.putAll(p);
+		return c;
+	}
+	
+	/***
+	 * The swept parameter values of a configuration, as they will be used
+	 */
+	private static String values(Properties c, GridData grid) {
+		PSOSettings s = HeadlessProgram.createSettings(c, grid);
+		return s.localBestWeight + "," + s.globalBestWeight + "," + s.inertia + "," 
+				+ s.particles + "," + s.nodes + "," + s.range;
+	}
+	
+	public static double mean(double[] v) {
+		double sum = 0;
+		for(double x : v) sum += x;
+		return v.length == 0 ? 0 : sum / v.length;
+	}
+	
+	/***
+	 * Sample variance, 0 for fewer than two values
+	 */
+	public static double variance(double[] v) {
+		if(v.length < 2) return 0;
+		double m = mean(v);
+		double sum = 0;
+		for(double x : v) sum += (x - m) * (x - m);
+		return sum / (v.length - 1);
+	}
+}
@@ -3,6 +3,8 @@ package geoptimize;
 
 import java.awt.Rectangle;
 import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
 
 import javax.swing.SwingUtilities;
 import javax.swing.UIManager;
@@ -16,7 +18,12 @@ import geoptimize.swing.MainWindow;
  */
 public class Program {
 	
-	public static void main(String[] args) {
+	public static void main(String[] args) throws IOException {
+		if(args.length > 0 && args[0].equals("-headless")) {
+			HeadlessProgram.main(Arrays.copyOfRange(args, 1, args.length));
+			return;
+		}
+		
 		SimulationManager manager = new SimulationManager();
 		
 		try {
@@ -0,0 +1,187 @@
+package geoptimize;
+
+import java.util.Arrays;
+
+/***
+ * Read-only quadtree over the populated cells of a GridData. Every node
+ * stores the total population under it, so a disc query adds whole nodes
+ * that lie inside the disc and only descends along the disc's edge.
+ * Empty quadrants are not stored at all.
+ * 
+ * Nodes are squares with power of two sides, the root covers the whole
+ * grid. Nodes of LEAF_SIZE cells or less are leaves and are scanned cell 
+ * by cell. Node positions are not stored, they follow from the path taken
+ * from the root (child k covers quadrant k: 0 top left, 1 top right, 
+ * 2 bottom left, 3 bottom right).
+ * 
+ * Built once per grid, see GridData.getQuadTree.
+ * 
+ * @author Callan
+ *
+ */
+public class QuadTree {
+	
+	public static final int LEAF_SIZE = 8;
+	
+	protected final GridData grid;
+	protected final int rootSize;
+	protected final int root;
+	protected final int depth;
+	
+	//sum[node], children[4 * node + k] (-1 for an empty quadrant)
+	protected double[] sum;
+	protected int[] children;
+	protected int nodeCount;
+	
+	public int getRoot() { return root; }
+	public int getRootSize() { return rootSize; }
+	public int getNodeCount() { return nodeCount; }
+	
+	/***
+	 * Levels below the root, leaves are at depth or above
+	 */
+	public int getDepth() { return depth; }
+	public double getSum(int node) { return sum[node]; }
+	public int getChild(int node, int k) { return children[4 * node + k]; }
+	public GridData getGrid() { return grid; }
+	public long getMemoryBytes() { return 8L * sum.length + 4L * children.length; }
+	
+	public QuadTree(GridData grid) {
+		this.grid = grid;
+		
+		int s = LEAF_SIZE;
+		int d = 0;
+		while(s < grid.width || s < grid.height) {
+			s *= 2;
+			d++;
+		}
+		rootSize = s;
+		depth = d;
+		
+		sum = new double[64];
+		children = new int[4 * 64];
+		root = build(0, 0, rootSize);
+		
+		sum = Arrays.copyOf(sum, nodeCount);
+		children = Arrays.copyOf(children, 4 * nodeCount);
+	}
+	
+	/***
+	 * Builds the node covering [x, x + size) x [y, y + size), children first.
+	 * @return the node, or -1 if it has no population
+	 */
+	private int build(int x, int y, int size) {
+		if(x >= grid.width || y >= grid.height) return -1;
+		
+		if(size <= LEAF_SIZE) {
+			double total = 0;
+			boolean populated = false;
+			for(int cy = y; cy < Math.min(y + size, grid.height); cy++) {
+				for(int cx = x; cx < Math.min(x + size, grid.width); cx++) {
+					float value = grid.get(cx, cy);
+					if(value != 0) {
+						total += value;
+						populated = true;
+					}
+				}
+			}
+			return populated ? allocate(total, -1, -1, -1, -1) : -1;
+		}
+		
+		int half = size / 2;
+		int c0 = build(x, y, half);
+		int c1 = build(x + half, y, half);
+		int c2 = build(x, y + half, half);
+		int c3 = build(x + half, y + half, half);
+		if(c0 < 0 && c1 < 0 && c2 < 0 && c3 < 0) return -1;
+		
+		double total = 0;
+		if(c0 >= 0) total += sum[c0];
+		if(c1 >= 0) total += sum[c1];
+		if(c2 >= 0) total += sum[c2];
+		if(c3 >= 0) total += sum[c3];
+		return allocate(total, c0, c1, c2, c3);
+	}
+	
+	private int allocate(double total, int c0, int c1, int c2, int c3) {
+		if(nodeCount == sum.length) {
+			sum = Arrays.copyOf(sum, nodeCount * 2);
+			children = Arrays.copyOf(children, 4 * nodeCount * 2);
+		}
+		int node = nodeCount++;
+		sum[node] = total;
+		children[4 * node] = c0;
+		children[4 * node + 1] = c1;
+		children[4 * node + 2] = c2;
+		children[4 * node + 3] = c3;
+		return node;
+	}
+	
+	/***
+	 * Population of the cells with dx*dx + dy*dy < range*range from (cx, cy),
+	 * only counting cells in [minX, maxX) x [minY, maxY).
+	 */
+	public double discSum(int cx, int cy, int range, int minX, int minY, int maxX, int maxY) {
+		if(root < 0 || range <= 0) return 0;
+		minX = Math.max(minX, 0);
+		minY = Math.max(minY, 0);
+		maxX = Math.min(maxX, grid.width);
+		maxY = Math.min(maxY, grid.height);
+		return discSum(root, 0, 0, rootSize, cx, cy, range * range, minX, minY, maxX, maxY);
+	}
+	
+	private double discSum(int node, int x, int y, int size, int cx, int cy, int r2, int minX, int minY, int maxX, int maxY) {
+		//node cells inside the clip
+		int x0 = Math.max(x, minX);
+		int y0 = Math.max(y, minY);
+		int x1 = Math.min(x + size, maxX);
+		int y1 = Math.min(y + size, maxY);
+		if(x0 >= x1 || y0 >= y1) return 0;
+		
+		if(!touches(cx, cy, r2, x0, y0, x1, y1)) return 0;
+		
+		boolean clipped = x0 > x || y0 > y 
+				|| x1 < Math.min(x + size, grid.width) || y1 < Math.min(y + size, grid.height);
+		if(!clipped && contains(cx, cy, r2, x0, y0, x1, y1)) return sum[node];
+		
+		if(size <= LEAF_SIZE) {
+			double total = 0;
+			for(int py = y0; py < y1; py++) {
+				for(int px = x0; px < x1; px++) {
+					int dx = px - cx;
+					int dy = py - cy;
+					if(dx * dx + dy * dy < r2) total += grid.get(px, py);
+				}
+			}
+			return total;
+		}
+		
+		int half = size / 2;
+		double total = 0;
+		for(int k = 0; k < 4; k++) {
+			int child = children[4 * node + k];
+			if(child < 0) continue;
+			total += discSum(child, x + (k & 1) * half, y + (k >> 1) * half, half, cx, cy, r2, minX, minY, maxX, maxY);
+		}
+		return total;
+	}
+	
+	/***
+	 * True if any cell of [x0, x1) x [y0, y1) is within the disc
+	 */
+	public static boolean touches(int cx, int cy, int r2, int x0, int y0, int x1, int y1) {
+		int dx = Math.max(x0, Math.min(x1 - 1, cx)) - cx;
+		int dy = Math.max(y0, Math.min(y1 - 1, cy)) - cy;
+		return dx * dx + dy * dy < r2;
+	}
+	
+	/***
+	 * True if every cell of [x0, x1) x [y0, y1) is within the disc.
+	 * Discs are convex, so checking the corner cells is enough.
+	 */
+	public static boolean contains(int cx, int cy, int r2, int x0, int y0, int x1, int y1) {
+		int dx = Math.max(cx - x0, x1 - 1 - cx);
+		int dy = Math.max(cy - y0, y1 - 1 - cy);
+		return dx * dx + dy * dy < r2;
+	}
+}
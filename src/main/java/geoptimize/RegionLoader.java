@@ -0,0 +1,93 @@
+package geoptimize;
+
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.util.Iterator;
+
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReadParam;
+import javax.imageio.ImageReader;
+import javax.imageio.stream.ImageInputStream;
+
+/***
+ * Loads only the part of a population image around a region, so memory
+ * and load time follow the region size instead of the whole country.
+ * 
+ * The region is grown by a margin (e.g. the node range, so discs at the
+ * edge still see the population just outside) and clipped to the image.
+ * The grid comes from an up to date GridFile when there is one, otherwise
+ * the image reader is asked for just that source region (tiled readers
+ * such as TIFF then only decode the tiles it touches).
+ * 
+ * The returned grid is in its own coordinates, with originX/originY set
+ * to where it starts in the image. Use toGrid/toImage to move regions
+ * and positions between the two.
+ * 
+ * @author Callan
+ *
+ */
+public class RegionLoader {
+	
+	/***
+	 * @param f population image
+	 * @param region in image coordinates
+	 * @param margin cells to load around the region
+	 * @return grid covering region plus margin, with a run index
+	 * @throws IOException
+	 */
+	public static GridData load(File f, Rectangle region, int margin) throws IOException {
+		Rectangle wanted = new Rectangle(region);
+		wanted.grow(margin, margin);
+		
+		long start = System.nanoTime();
+		GridData grid = GridFile.readCachedRegion(f, wanted);
+		if(grid == null) grid = decode(f, wanted);
+		grid.buildRunIndex();
+		
+		System.out.println(String.format("Loaded %dx%d of %s at (%d, %d) in %.2fs", 
+				grid.width, grid.height, f.getName(), grid.originX, grid.originY, (System.nanoTime() - start) / 1e9));
+		return grid;
+	}
+	
+	private static GridData decode(File f, Rectangle wanted) throws IOException {
+		try(ImageInputStream in = ImageIO.createImageInputStream(f)) {
+			if(in == null) throw new IOException("Can not open " + f);
+			Iterator<ImageReader> readers = ImageIO.getImageReaders(in);
+			if(!readers.hasNext()) throw new IOException("Can not read " + f + " as an image");
+			
+			ImageReader reader = readers.next();
+			try {
+				reader.setInput(in, true, true);
+				Rectangle area = new Rectangle(0, 0, reader.getWidth(0), reader.getHeight(0)).intersection(wanted);
+				if(area.isEmpty()) throw new IOException("Region " + wanted + " is outside " + f);
+				
+				ImageReadParam param = reader.getDefaultReadParam();
+				param.setSourceRegion(area);
+				BufferedImage img = reader.read(0, param);
+				
+				GridData grid = new GridData(img, false);
+				grid.originX = area.x;
+				grid.originY = area.y;
+				return grid;
+			} finally {
+				reader.dispose();
+			}
+		}
+	}
+	
+	/***
+	 * Region in image coordinates moved into grid coordinates
+	 */
+	public static Rectangle toGrid(GridData grid, Rectangle region) {
+		return new Rectangle(region.x - grid.originX, region.y - grid.originY, region.width, region.height);
+	}
+	
+	/***
+	 * Region in grid coordinates moved into image coordinates
+	 */
+	public static Rectangle toImage(GridData grid, Rectangle region) {
+		return new Rectangle(region.x + grid.originX, region.y + grid.originY, region.width, region.height);
+	}
+}
@@ -4,14 +4,20 @@ import java.awt.Rectangle;
 import java.awt.image.BufferedImage;
 import java.io.File;
 import java.io.IOException;
+import java.util.ArrayList;
 import java.util.LinkedList;
+import java.util.List;
 
 import javax.imageio.ImageIO;
 import javax.swing.JFrame;
 import javax.swing.SwingUtilities;
 import javax.swing.UIManager;
 
+import geoptimize.pso.PSOSettings;
 import geoptimize.pso.PSOSimulation;
+import geoptimize.pso.execution.ExecutionMode;
+import geoptimize.pso.fitness.FitnessType;
+import geoptimize.pso.stopping.StoppingCriterion;
 import geoptimize.swing.MainWindow;
 
 
@@ -31,6 +37,10 @@ public class SimulationManager extends AbstractModel {
 	protected File populationGridFile;
 	protected BufferedImage populationGrid;
 	
+	
+	//towers may only go on these when set
+	protected CandidateSites candidateSites;
+	
 	protected File backgroundImageFile;
 	protected BufferedImage backgroundImage;
 	
@@ -43,6 +53,10 @@ public class SimulationManager extends AbstractModel {
 	protected float lbestWeight = 0.5f;
 	protected float gbestWeight = 0.5f;
 	protected float inertia = 0.5f;
+	protected FitnessType fitnessType = FitnessType.BinaryRange;
+	protected ExecutionMode executionMode = ExecutionMode.WorkerPool;
+	protected boolean asyncMode = false;
+	protected List<StoppingCriterion> stoppingCriteria = new ArrayList<StoppingCriterion>();
 	
 	
 	/* Properties */
@@ -73,6 +87,13 @@ public class SimulationManager extends AbstractModel {
 	public void setRange(int n) { range = n; }
 	public void setIterations(int n) { nIterations = n; }
 	public void setParticles(int n) { nParticles = n; }
+	public void setFitnessType(FitnessType type) { fitnessType = type; }
+	public void setExecutionMode(ExecutionMode mode) { executionMode = mode; }
+	public void setAsyncMode(boolean async) { asyncMode = async; }
+	
+	public List<StoppingCriterion> getStoppingCriteria() { return stoppingCriteria; }
+	public void addStoppingCriterion(StoppingCriterion c) { stoppingCriteria.add(c); }
+	public void clearStoppingCriteria() { stoppingCriteria.clear(); }
 	
 	
 	public BufferedImage getPopulationGrid() { return populationGrid; }
@@ -101,6 +122,20 @@ public class SimulationManager extends AbstractModel {
 		this.firePropertyChange("populationGridFile", null, populationGridFile);
 	}
 	
+	/***
+	 * Restrict nodes to the sites in a CSV file or mask image
+	 * @param f
+	 * @throws IOException
+	 */
+	public void loadCandidateSites(File f) throws IOException {
+		candidateSites = CandidateSites.load(f);
+		System.out.println("Loaded " + candidateSites.size() + " candidate sites");
+		this.firePropertyChange("candidateSites", null, candidateSites);
+	}
+	
+	public void clearCandidateSites() { candidateSites = null; }
+	public CandidateSites getCandidateSites() { return candidateSites; }
+	
 	public void loadBackground(File f) throws IOException {
 		backgroundImageFile = f;
 		BufferedImage pg = ImageIO.read(f);
@@ -121,16 +156,24 @@ public class SimulationManager extends AbstractModel {
 		System.out.println("Region : " + region.toString());
 		if(populationGrid == null) throw new Exception("Population Grid not set.");
 		
+		if(simulation != null) simulation.shutdown();
+		
+		//built once per file and shared by every simulation (with its quadtree, pyramid and run index)
+		GridData populationData = GridDataCache.getInstance().get(populationGridFile, populationGrid);
 		
-		simulation = new PSOSimulation(
-				nNodes, 
-				range,
-				lbestWeight,
-				gbestWeight,
-				inertia,
-				nParticles, 
-				region, 
-				populationGrid);
+		PSOSettings settings = new PSOSettings();
+		settings.nodes = nNodes;
+		settings.range = range;
+		settings.localBestWeight = lbestWeight;
+		settings.globalBestWeight = gbestWeight;
+		settings.inertia = inertia;
+		settings.particles = nParticles;
+		settings.region = region;
+		settings.fitnessType = fitnessType;
+		settings.executionMode = executionMode;
+		settings.sites = candidateSites;
+		
+		simulation = new PSOSimulation(settings, populationData);
 		
 		this.firePropertyChange("simulation", null, simulation);
 		
@@ -145,13 +188,33 @@ public class SimulationManager extends AbstractModel {
 		
 		if(simulationThread == null || !simulationThread.isAlive()) {
 			simulationThread = new Thread(() -> {
-				while(simulation.getCurrentIteration() < nIterations) {	
+				if(asyncMode) {
+					//same number of evaluations as the synchronous run
+					long remaining = (long)(nIterations - simulation.getCurrentIteration()) * nParticles;
+					System.out.println("Async run : " + simulation.runAsync(remaining));
+					SimulationManager.this.firePropertyChange("simulation", null, simulation);
+					return;
+				}
+				
+				for(StoppingCriterion c : stoppingCriteria) c.reset();
+				
+				String reason = null;
+				while(reason == null) {
+					if(simulation.getCurrentIteration() >= nIterations) {
+						reason = "Iteration limit " + nIterations + " reached";
+						break;
+					}
 					simulation.step();		
 					SimulationManager.this.firePropertyChange("simulation", null, simulation);
+					reason = StoppingCriterion.checkAll(stoppingCriteria, simulation);
 					try {
 						Thread.sleep(50);
 					} catch(Exception e) {}
 				}
+				simulation.setStopReason(reason);
+				System.out.println("Stopped at iteration " + simulation.getCurrentIteration() + " : " + reason);
+				System.out.println("Run : " + simulation.getStatistics());
+				SimulationManager.this.firePropertyChange("stopReason", null, reason);
 			});
 			simulationThread.start();
 		} else {
@@ -0,0 +1,104 @@
+package geoptimize;
+
+import java.awt.Rectangle;
+
+/***
+ * Copy of part of a GridData stored as square tiles (64x64 by default),
+ * each tile contiguous in memory, with a summary per tile: population sum,
+ * maximum and non-zero cell count.
+ * 
+ * Disc queries touch a few small contiguous blocks instead of long rows
+ * of a wide image, and the summaries let them skip empty tiles and add
+ * whole tiles without visiting their cells.
+ * 
+ * Coordinates are the same as the source grid.
+ * 
+ * @author Callan
+ *
+ */
+public class TiledGridData {
+	
+	public static final int DEFAULT_TILE_SIZE = 64;
+	
+	//area of the source grid that was copied
+	public final Rectangle area;
+	public final int tileSize;
+	public final int tilesX;
+	public final int tilesY;
+	
+	//tile t holds cells [t * tileSize^2, (t + 1) * tileSize^2), row-major in the tile.
+	//cells of edge tiles outside the area are 0
+	protected final float[] data;
+	
+	protected final double[] tileSum;
+	protected final float[] tileMax;
+	protected final int[] tileNonZero;
+	
+	public TiledGridData(GridData grid, Rectangle area) {
+		this(grid, area, DEFAULT_TILE_SIZE);
+	}
+	
+	public TiledGridData(GridData grid, Rectangle area, int tileSize) {
+		this.area = new Rectangle(area);
+		this.tileSize = tileSize;
+		this.tilesX = (area.width + tileSize - 1) / tileSize;
+		this.tilesY = (area.height + tileSize - 1) / tileSize;
+		
+		int tiles = tilesX * tilesY;
+		int cells = tileSize * tileSize;
+		data = new float[tiles * cells];
+		tileSum = new double[tiles];
+		tileMax = new float[tiles];
+		tileNonZero = new int[tiles];
+		
+		for(int ay = 0; ay < area.height; ay++) {
+			int ty = ay / tileSize;
+			int cy = ay % tileSize;
+			for(int ax = 0; ax < area.width; ax++) {
+				int t = ty * tilesX + ax / tileSize;
+				float value = grid.get(area.x + ax, area.y + ay);
+				data[t * cells + cy * tileSize + ax % tileSize] = value;
+				
+				if(value != 0) {
+					tileSum[t] += value;
+					tileMax[t] = Math.max(tileMax[t], value);
+					tileNonZero[t]++;
+				}
+			}
+		}
+	}
+	
+	public float get(int x, int y) {
+		int ax = x - area.x;
+		int ay = y - area.y;
+		int t = (ay / tileSize) * tilesX + ax / tileSize;
+		return data[t * tileSize * tileSize + (ay % tileSize) * tileSize + ax % tileSize];
+	}
+	
+	public int tileIndex(int tx, int ty) { return ty * tilesX + tx; }
+	
+	/***
+	 * Grid coordinates of the tile's cells, clipped to the area
+	 */
+	public Rectangle getTileBounds(int tx, int ty) {
+		int x = area.x + tx * tileSize;
+		int y = area.y + ty * tileSize;
+		return new Rectangle(x, y, 
+				Math.min(tileSize, area.x + area.width - x), 
+				Math.min(tileSize, area.y + area.height - y));
+	}
+	
+	public double getTileSum(int t) { return tileSum[t]; }
+	public float getTileMax(int t) { return tileMax[t]; }
+	public int getTileNonZero(int t) { return tileNonZero[t]; }
+	
+	/***
+	 * Offset of tile t's first cell in the tile data
+	 */
+	public int tileOffset(int t) { return t * tileSize * tileSize; }
+	
+	/***
+	 * Raw tile data, see tileOffset
+	 */
+	public float[] getData() { return data; }
+}
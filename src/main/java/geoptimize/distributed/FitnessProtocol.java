@@ -0,0 +1,127 @@
+package geoptimize.distributed;
+
+import java.awt.Rectangle;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.List;
+
+import geoptimize.GridData;
+import geoptimize.pso.PSOSolution;
+
+/***
+ * Binary protocol between a coordinator and its fitness workers.
+ * Everything is big-endian (Data streams).
+ * 
+ * Coordinator -> worker
+ *   INIT  : byte INIT, int MAGIC, int VERSION, int fitnessType, int width, int height, float[width*height]
+ *   EVAL  : byte EVAL, int batchId, int count, then per solution
+ *           int nodes, int range, nodes * (int x, int y)
+ *   CLOSE : byte CLOSE
+ * Worker -> coordinator
+ *   READY  : byte READY (reply to INIT)
+ *   RESULT : byte RESULT, int batchId, int count, float[count]
+ *   ERROR  : byte ERROR, UTF message
+ * 
+ * The worker only receives the simulation region, node positions are 
+ * sent relative to the region's top left corner.
+ * 
+ * @author Callan
+ *
+ */
+public class FitnessProtocol {
+	private FitnessProtocol() { }
+	
+	public static final int MAGIC = 0x47454F50; //"GEOP"
+	public static final int VERSION = 1;
+	
+	public static final byte INIT = 1;
+	public static final byte EVAL = 2;
+	public static final byte CLOSE = 3;
+	public static final byte READY = 4;
+	public static final byte RESULT = 5;
+	public static final byte ERROR = 6;
+	
+	public static void writeInit(DataOutputStream out, int fitnessType, GridData grid, Rectangle region) throws IOException {
+		out.writeByte(INIT);
+		out.writeInt(MAGIC);
+		out.writeInt(VERSION);
+		out.writeInt(fitnessType);
+		out.writeInt(region.width);
+		out.writeInt(region.height);
+		for(int y = region.y; y < region.y + region.height; y++) {
+			for(int x = region.x; x < region.x + region.width; x++) {
+				out.writeFloat(grid.get(x, y));
+			}
+		}
+		out.flush();
+	}
+	
+	/***
+	 * Reads the rest of an INIT message (after the type byte).
+	 * @return the region as a grid with its origin at (0, 0)
+	 */
+	public static GridData readInitGrid(DataInputStream in, int[] fitnessType) throws IOException {
+		if(in.readInt() != MAGIC) throw new IOException("Not a fitness coordinator");
+		int version = in.readInt();
+		if(version != VERSION) throw new IOException("Unsupported protocol version " + version);
+		fitnessType[0] = in.readInt();
+		int width = in.readInt();
+		int height = in.readInt();
+		float[] data = new float[width * height];
+		for(int i = 0; i < data.length; i++) {
+			data[i] = in.readFloat();
+		}
+		return new GridData(width, height, data);
+	}
+	
+	public static void writeEval(DataOutputStream out, int batchId, List<PSOSolution> solutions, int from, int to, Rectangle region) throws IOException {
+		out.writeByte(EVAL);
+		out.writeInt(batchId);
+		out.writeInt(to - from);
+		for(int i = from; i < to; i++) {
+			PSOSolution s = solutions.get(i);
+			out.writeInt(s.size());
+			out.writeInt(s.getRange());
+			for(int j = 0; j < s.size(); j++) {
+				out.writeInt(s.getX(j) - region.x);
+				out.writeInt(s.getY(j) - region.y);
+			}
+		}
+		out.flush();
+	}
+	
+	/***
+	 * Reads the solutions of an EVAL message (after the batch id)
+	 */
+	public static PSOSolution[] readSolutions(DataInputStream in) throws IOException {
+		int count = in.readInt();
+		PSOSolution[] solutions = new PSOSolution[count];
+		for(int i = 0; i < count; i++) {
+			int nodes = in.readInt();
+			int range = in.readInt();
+			PSOSolution s = new PSOSolution(nodes, range);
+			for(int j = 0; j < nodes; j++) {
+				s.setPosition(j, in.readInt(), in.readInt());
+			}
+			solutions[i] = s;
+		}
+		return solutions;
+	}
+	
+	public static void writeResult(DataOutputStream out, int batchId, float[] fitness) throws IOException {
+		out.writeByte(RESULT);
+		out.writeInt(batchId);
+		out.writeInt(fitness.length);
+		for(float f : fitness) {
+			out.writeFloat(f);
+		}
+		out.flush();
+	}
+	
+	public static void writeError(DataOutputStream out, String message) throws IOException {
+		out.writeByte(ERROR);
+		out.writeUTF(message == null ? "" : message);
+		out.flush();
+	}
+}
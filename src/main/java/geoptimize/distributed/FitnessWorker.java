@@ -0,0 +1,143 @@
+package geoptimize.distributed;
+
+import java.awt.Rectangle;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketException;
+import java.util.Arrays;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import geoptimize.GridData;
+import geoptimize.pso.PSOSolution;
+import geoptimize.pso.fitness.FitnessType;
+import geoptimize.pso.fitness.PSOFitnessFunction;
+
+/***
+ * Evaluates fitness for a remote coordinator.
+ * 
+ * Each coordinator connection sends the region it is optimizing once,
+ * the worker keeps its own copy of it and then answers batches of 
+ * solutions until the connection closes. See FitnessProtocol.
+ * 
+ * Run standalone with: FitnessWorker [port]
+ * 
+ * @author Callan
+ *
+ */
+public class FitnessWorker implements AutoCloseable {
+	
+	public static final int DEFAULT_PORT = 7341;
+	
+	private final ServerSocket server;
+	private final Set<Socket> connections = ConcurrentHashMap.newKeySet();
+	private volatile boolean closed;
+	
+	public int getPort() { return server.getLocalPort(); }
+	
+	/***
+	 * @param port 0 for any free port
+	 * @throws IOException
+	 */
+	public FitnessWorker(int port) throws IOException {
+		server = new ServerSocket(port);
+	}
+	
+	/***
+	 * Accept coordinators on a background thread.
+	 * @return this
+	 */
+	public FitnessWorker start() {
+		Thread t = new Thread(this::serve, "FitnessWorker-" + getPort());
+		t.setDaemon(true);
+		t.start();
+		return this;
+	}
+	
+	/***
+	 * Accept coordinators until closed, one thread per connection.
+	 */
+	public void serve() {
+		while(!closed) {
+			try {
+				Socket socket = server.accept();
+				socket.setTcpNoDelay(true);
+				connections.add(socket);
+				Thread t = new Thread(() -> handle(socket), "FitnessWorker-" + socket.getRemoteSocketAddress());
+				t.setDaemon(true);
+				t.start();
+			} catch(IOException e) {
+				if(!closed) e.printStackTrace();
+			}
+		}
+	}
+	
+	private void handle(Socket socket) {
+		try(Socket s = socket) {
+			DataInputStream in = new DataInputStream(new BufferedInputStream(s.getInputStream()));
+			DataOutputStream out = new DataOutputStream(new BufferedOutputStream(s.getOutputStream()));
+			
+			if(in.readByte() != FitnessProtocol.INIT) {
+				FitnessProtocol.writeError(out, "Expected INIT");
+				return;
+			}
+			int[] type = new int[1];
+			GridData grid = FitnessProtocol.readInitGrid(in, type);
+			PSOFitnessFunction function;
+			try {
+				function = PSOFitnessFunction.create(
+						FitnessType.values()[type[0]], 
+						grid, 
+						new Rectangle(0, 0, grid.width, grid.height));
+			} catch(RuntimeException e) {
+				FitnessProtocol.writeError(out, e.toString());
+				return;
+			}
+			out.writeByte(FitnessProtocol.READY);
+			out.flush();
+			
+			while(true) {
+				byte message = in.readByte();
+				if(message == FitnessProtocol.CLOSE) return;
+				if(message != FitnessProtocol.EVAL) {
+					FitnessProtocol.writeError(out, "Unexpected message " + message);
+					return;
+				}
+				
+				int batchId = in.readInt();
+				PSOSolution[] solutions = FitnessProtocol.readSolutions(in);
+				float[] fitness = new float[solutions.length];
+				function.calcFitness(Arrays.asList(solutions), fitness);
+				FitnessProtocol.writeResult(out, batchId, fitness);
+			}
+		} catch(EOFException | SocketException e) {
+			//coordinator went away
+		} catch(IOException e) {
+			if(!closed) e.printStackTrace();
+		} finally {
+			connections.remove(socket);
+		}
+	}
+	
+	@Override
+	public void close() throws IOException {
+		closed = true;
+		server.close();
+		for(Socket s : connections) {
+			s.close();
+		}
+	}
+	
+	public static void main(String[] args) throws IOException {
+		int port = args.length > 0 ? Integer.parseInt(args[0]) : DEFAULT_PORT;
+		FitnessWorker worker = new FitnessWorker(port);
+		System.out.println("Fitness worker listening on port " + worker.getPort());
+		worker.serve();
+	}
+}
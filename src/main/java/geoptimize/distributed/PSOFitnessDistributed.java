@@ -0,0 +1,329 @@
+package geoptimize.distributed;
+
+import java.awt.Rectangle;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import geoptimize.GridData;
+import geoptimize.pso.PSOSolution;
+import geoptimize.pso.fitness.FitnessType;
+import geoptimize.pso.fitness.PSOFitnessFunction;
+
+/***
+ * Coordinator side of distributed fitness evaluation.
+ * 
+ * Sends the region to every FitnessWorker once, then splits each batch
+ * of solutions into chunks that the workers claim one at a time. Once no
+ * chunk is left to claim, idle workers also take copies of chunks still
+ * out on slower workers, and whichever answer comes first is used, so a
+ * slow or stalled worker does not hold up the batch. A worker busy with
+ * an old chunk gets no new work until it answers.
+ * 
+ * A worker that fails or does not answer within the timeout is dropped 
+ * and its chunk goes back to the others. If every worker is gone, the 
+ * remaining chunks are evaluated locally.
+ * 
+ * @author Callan
+ *
+ */
+public class PSOFitnessDistributed extends PSOFitnessFunction implements AutoCloseable {
+	
+	//chunks per worker in a batch, so faster workers take more of it
+	private static final int CHUNKS_PER_WORKER = 2;
+	
+	//most workers evaluating the same chunk at once
+	private static final int MAX_COPIES = 2;
+	
+	//workers build their fitness function before replying to INIT
+	private static final int INIT_TIMEOUT_MILLIS = 60000;
+	
+	private final FitnessType type;
+	private final List<Connection> workers = new CopyOnWriteArrayList<Connection>();
+	private final ExecutorService io;
+	private PSOFitnessFunction local;
+	private int nextBatchId;
+	
+	//guards Connection.busy and current
+	private final Object lock = new Object();
+	private volatile Batch current;
+	
+	//reused by calcFitness(PSOSolution), guarded by this
+	private final List<PSOSolution> single = Arrays.asList(new PSOSolution[1]);
+	private final float[] singleFitness = new float[1];
+	
+	public int getWorkerCount() { return workers.size(); }
+	
+	private static class Connection {
+		final InetSocketAddress address;
+		final Socket socket;
+		final DataInputStream in;
+		final DataOutputStream out;
+		
+		//has a task running, only touched with lock held
+		boolean busy;
+		//results of the last chunk, grown as needed
+		float[] results = new float[0];
+		
+		Connection(InetSocketAddress address, int timeoutMillis) throws IOException {
+			this.address = address;
+			socket = new Socket();
+			socket.connect(address, timeoutMillis);
+			socket.setTcpNoDelay(true);
+			socket.setSoTimeout(Math.max(timeoutMillis, INIT_TIMEOUT_MILLIS));
+			in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+			out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+		}
+		
+		void close() {
+			try {
+				socket.close();
+			} catch(IOException e) { }
+		}
+	}
+	
+	private static final byte WAITING = 0, SENT = 1, DONE = 2;
+	
+	/***
+	 * Chunks of one calcFitness call and which of them are done.
+	 * Results of a chunk are only written by the first to finish it.
+	 */
+	private static class Batch {
+		final int id;
+		final List<PSOSolution> solutions;
+		final float[] fitness;
+		final int[] from, to;
+		final byte[] state;
+		final int[] copies;
+		int remaining;
+		
+		Batch(int id, List<PSOSolution> solutions, float[] fitness, int chunks) {
+			this.id = id;
+			this.solutions = solutions;
+			this.fitness = fitness;
+			int n = solutions.size();
+			from = new int[chunks];
+			to = new int[chunks];
+			for(int c = 0; c < chunks; c++) {
+				from[c] = c * n / chunks;
+				to[c] = (c + 1) * n / chunks;
+			}
+			state = new byte[chunks];
+			copies = new int[chunks];
+			remaining = chunks;
+		}
+		
+		/***
+		 * A chunk no one has, else a copy of one still out on another
+		 * worker, -1 when there is nothing to do
+		 */
+		synchronized int claim() {
+			int backup = -1;
+			for(int c = 0; c < state.length; c++) {
+				if(state[c] == WAITING) {
+					state[c] = SENT;
+					copies[c]++;
+					return c;
+				}
+				if(state[c] == SENT && copies[c] < MAX_COPIES && (backup < 0 || copies[c] < copies[backup])) backup = c;
+			}
+			if(backup >= 0) copies[backup]++;
+			return backup;
+		}
+		
+		/***
+		 * Take a chunk to evaluate locally
+		 * @return false if it is already done
+		 */
+		synchronized boolean claimLocal(int c) {
+			if(state[c] == DONE) return false;
+			state[c] = DONE;
+			remaining--;
+			return true;
+		}
+		
+		synchronized void complete(int c, float[] results) {
+			copies[c]--;
+			if(state[c] == DONE) return;
+			System.arraycopy(results, 0, fitness, from[c], to[c] - from[c]);
+			state[c] = DONE;
+			remaining--;
+			notifyAll();
+		}
+		
+		synchronized void failed(int c) {
+			copies[c]--;
+			if(state[c] == SENT && copies[c] == 0) state[c] = WAITING;
+			notifyAll();
+		}
+	}
+	
+	/***
+	 * @param grid
+	 * @param region
+	 * @param type fitness function the workers run
+	 * @param addresses workers to connect to, unreachable ones are skipped
+	 * @param timeoutMillis longest wait for a worker's reply before it is dropped
+	 */
+	public PSOFitnessDistributed(GridData grid, Rectangle region, FitnessType type, List<InetSocketAddress> addresses, int timeoutMillis) {
+		super(grid, region);
+		this.type = type;
+		
+		for(InetSocketAddress address : addresses) {
+			Connection c = null;
+			try {
+				c = new Connection(address, timeoutMillis);
+				FitnessProtocol.writeInit(c.out, type.ordinal(), grid, region);
+				byte reply = c.in.readByte();
+				if(reply == FitnessProtocol.ERROR) throw new IOException(c.in.readUTF());
+				if(reply != FitnessProtocol.READY) throw new IOException("Unexpected reply " + reply);
+				c.socket.setSoTimeout(timeoutMillis);
+				workers.add(c);
+			} catch(IOException e) {
+				System.out.println("Fitness worker " + address + " unavailable : " + e);
+				if(c != null) c.close();
+			}
+		}
+		System.out.println("Fitness workers : " + workers.size() + " / " + addresses.size());
+		
+		io = Executors.newCachedThreadPool(r -> {
+			Thread t = new Thread(r, "FitnessCoordinator");
+			t.setDaemon(true);
+			return t;
+		});
+	}
+	
+	@Override
+	public boolean supportsBatch() {
+		return true;
+	}
+	
+	@Override
+	public synchronized float calcFitness(PSOSolution solution) {
+		single.set(0, solution);
+		calcFitness(single, singleFitness);
+		single.set(0, null);
+		return singleFitness[0];
+	}
+	
+	@Override
+	public synchronized void calcFitness(List<PSOSolution> solutions, float[] fitness) {
+		int n = solutions.size();
+		if(n == 0) return;
+		
+		int chunks = Math.max(1, Math.min(n, workers.size() * CHUNKS_PER_WORKER));
+		Batch batch = new Batch(nextBatchId++, solutions, fitness, chunks);
+		
+		synchronized(lock) {
+			current = batch;
+		}
+		
+		//wait for the workers, or until they are all gone. Idle workers are
+		//started again on every wake up, in case a failed chunk came back
+		//after they had run out of work. lock is always taken before batch.
+		while(true) {
+			startIdleWorkers();
+			synchronized(batch) {
+				if(batch.remaining == 0 || workers.isEmpty()) break;
+				try {
+					batch.wait(100);
+				} catch(InterruptedException e) {
+					Thread.currentThread().interrupt();
+					throw new RuntimeException("Interrupted waiting for fitness workers", e);
+				}
+			}
+		}
+		synchronized(lock) {
+			current = null;
+		}
+		
+		for(int c = 0; c < chunks; c++) {
+			if(!batch.claimLocal(c)) continue;
+			PSOFitnessFunction f = getLocal();
+			for(int i = batch.from[c]; i < batch.to[c]; i++) {
+				fitness[i] = f.calcFitness(solutions.get(i));
+			}
+		}
+	}
+	
+	private void startIdleWorkers() {
+		synchronized(lock) {
+			for(Connection c : workers) {
+				if(c.busy) continue;
+				c.busy = true;
+				io.execute(() -> work(c));
+			}
+		}
+	}
+	
+	/***
+	 * Evaluate chunks of the current batch on one worker until there is 
+	 * nothing left to claim or the worker fails.
+	 */
+	private void work(Connection c) {
+		while(true) {
+			Batch batch;
+			int chunk;
+			synchronized(lock) {
+				batch = current;
+				chunk = batch == null ? -1 : batch.claim();
+				if(chunk < 0) {
+					c.busy = false;
+					return;
+				}
+			}
+			
+			try {
+				int from = batch.from[chunk];
+				int to = batch.to[chunk];
+				FitnessProtocol.writeEval(c.out, batch.id, batch.solutions, from, to, region);
+				
+				byte reply = c.in.readByte();
+				if(reply == FitnessProtocol.ERROR) throw new IOException(c.in.readUTF());
+				if(reply != FitnessProtocol.RESULT) throw new IOException("Unexpected reply " + reply);
+				if(c.in.readInt() != batch.id) throw new IOException("Reply for another batch");
+				int count = c.in.readInt();
+				if(count != to - from) throw new IOException("Expected " + (to - from) + " results");
+				
+				if(c.results.length < count) c.results = new float[count];
+				for(int i = 0; i < count; i++) {
+					c.results[i] = c.in.readFloat();
+				}
+				batch.complete(chunk, c.results);
+			} catch(IOException e) {
+				System.out.println("Dropping fitness worker " + c.address + " : " + e);
+				workers.remove(c);
+				c.close();
+				batch.failed(chunk);
+				return;
+			}
+		}
+	}
+	
+	private PSOFitnessFunction getLocal() {
+		if(local == null) local = PSOFitnessFunction.create(type, grid, region);
+		return local;
+	}
+	
+	@Override
+	public void close() {
+		for(Connection c : workers) {
+			try {
+				c.out.writeByte(FitnessProtocol.CLOSE);
+				c.out.flush();
+			} catch(IOException e) { }
+			c.close();
+		}
+		workers.clear();
+		io.shutdown();
+	}
+}
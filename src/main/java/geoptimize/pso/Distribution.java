@@ -1,7 +1,19 @@
 package geoptimize.pso;
 
+/***
+ * How the starting node positions of a swarm are spread over the region,
+ * see ParticleInitializer.
+ * 
+ * @author Callan
+ *
+ */
 public enum Distribution {
+	//stratified, one jittered lattice cell per node
 	Uniform,
+	//uniform over the largest disc centred on the region
 	Radial,
-	Random
+	//independent uniform positions
+	Random,
+	//sampled in proportion to population
+	Density
 }
@@ -0,0 +1,211 @@
+package geoptimize.pso;
+
+import java.awt.Rectangle;
+import java.util.PriorityQueue;
+
+import geoptimize.CandidateSites;
+import geoptimize.GridData;
+import geoptimize.pso.execution.ExecutionMode;
+import geoptimize.pso.execution.PSOExecutor;
+import geoptimize.pso.fitness.DiscStamps;
+
+/***
+ * Lazy greedy placement: nodes are added one at a time, each at the
+ * candidate position that covers the most population not yet covered.
+ * 
+ * Coverage is submodular, a candidate's gain can only shrink as nodes are
+ * added, so stale gains are upper bounds. Candidates sit in a priority
+ * queue by their last known gain and are only re-evaluated when they reach
+ * the top. Stale candidates at the top are re-evaluated in parallel
+ * batches. Greedy max coverage is within (1 - 1/e) of the best placement,
+ * using far fewer evaluations than a swarm.
+ * 
+ * Candidates are the points of a stride lattice over the region, or the
+ * candidate sites inside it. The result can be used as is or as a seed for
+ * PSOSimulation (see PSOSettings.greedySeed).
+ * 
+ * @author Callan
+ *
+ */
+public class GreedyOptimizer {
+	
+	protected final GridData grid;
+	protected final Rectangle region;
+	protected final int range;
+	
+	protected final int[] candidateX;
+	protected final int[] candidateY;
+	
+	//marginal gains worked out by the last run
+	protected long evaluations;
+	public long getEvaluations() { return evaluations; }
+	
+	public int getCandidateCount() { return candidateX.length; }
+	
+	/***
+	 * Candidates every stride cells across the region, starting stride / 2 in
+	 * @param grid
+	 * @param region
+	 * @param range
+	 * @param stride
+	 */
+	public GreedyOptimizer(GridData grid, Rectangle region, int range, int stride) {
+		this.grid = grid;
+		this.region = new Rectangle(region);
+		this.range = range;
+		
+		stride = Math.max(1, stride);
+		int nx = Math.max(1, (region.width - stride / 2 + stride - 1) / stride);
+		int ny = Math.max(1, (region.height - stride / 2 + stride - 1) / stride);
+		
+		candidateX = new int[nx * ny];
+		candidateY = new int[nx * ny];
+		for(int j = 0; j < ny; j++) {
+			for(int i = 0; i < nx; i++) {
+				candidateX[j * nx + i] = Math.min(region.x + stride / 2 + i * stride, region.x + region.width - 1);
+				candidateY[j * nx + i] = Math.min(region.y + stride / 2 + j * stride, region.y + region.height - 1);
+			}
+		}
+	}
+	
+	/***
+	 * Candidates are the sites inside the region
+	 */
+	public GreedyOptimizer(GridData grid, Rectangle region, int range, CandidateSites sites) {
+		this.grid = grid;
+		this.region = new Rectangle(region);
+		this.range = range;
+		
+		int count = 0;
+		for(int s = 0; s < sites.size(); s++) {
+			if(region.contains(sites.getX(s), sites.getY(s))) count++;
+		}
+		candidateX = new int[count];
+		candidateY = new int[count];
+		int i = 0;
+		for(int s = 0; s < sites.size(); s++) {
+			if(region.contains(sites.getX(s), sites.getY(s))) {
+				candidateX[i] = sites.getX(s);
+				candidateY[i] = sites.getY(s);
+				i++;
+			}
+		}
+	}
+	
+	/***
+	 * run on a worker pool that only lives for this call
+	 */
+	public PSOSolution run(int nodes) {
+		try(PSOExecutor executor = PSOExecutor.create(ExecutionMode.WorkerPool)) {
+			return run(nodes, executor);
+		}
+	}
+	
+	/***
+	 * Place up to nodes nodes greedily. Stops early if there are no
+	 * candidates left. The solution's fitness is the covered population.
+	 * @param nodes
+	 * @param executor re-evaluates gains, e.g. the simulation's
+	 * @return
+	 */
+	public PSOSolution run(int nodes, PSOExecutor executor) {
+		int n = candidateX.length;
+		boolean[] covered = new boolean[region.width * region.height];
+		double[] gain = new double[n];
+		
+		//round each candidate's gain was worked out for
+		int[] round = new int[n];
+		
+		PSOSolution solution = new PSOSolution(nodes, range);
+		double fitness = 0;
+		evaluations = 0;
+		
+		executor.forRange(n, (start, end) -> {
+			for(int c = start; c < end; c++) gain[c] = gain(c, covered);
+		});
+		evaluations += n;
+		
+		PriorityQueue<Integer> queue = new PriorityQueue<Integer>(Math.max(1, n), 
+				(a, b) -> Double.compare(gain[b], gain[a]));
+		for(int c = 0; c < n; c++) queue.add(c);
+		
+		int batchSize = 4 * PSOExecutor.defaultThreads();
+		int[] batch = new int[batchSize];
+		
+		int placed = 0;
+		for(int r = 0; placed < nodes && !queue.isEmpty(); ) {
+			int top = queue.peek();
+			if(round[top] == r) {
+				//fresh, so no other candidate can beat it
+				queue.poll();
+				solution.setPosition(placed++, candidateX[top], candidateY[top]);
+				fitness += gain[top];
+				cover(top, covered);
+				r++;
+				continue;
+			}
+			
+			//re-evaluate the stale candidates at the top together
+			int count = 0;
+			while(count < batchSize && !queue.isEmpty() && round[queue.peek()] != r) {
+				batch[count++] = queue.poll();
+			}
+			final int current = r;
+			executor.forRange(count, (start, end) -> {
+				for(int k = start; k < end; k++) {
+					gain[batch[k]] = gain(batch[k], covered);
+					round[batch[k]] = current;
+				}
+			});
+			evaluations += count;
+			for(int k = 0; k < count; k++) queue.add(batch[k]);
+		}
+		
+		//nodes that could not be placed stay on the last one
+		for(int i = placed; i < nodes && placed > 0; i++) {
+			solution.setPosition(i, solution.getX(placed - 1), solution.getY(placed - 1));
+		}
+		
+		solution.fitness = (float)fitness;
+		return solution;
+	}
+	
+	/***
+	 * Population in candidate c's disc that is not covered yet
+	 */
+	private double gain(int c, boolean[] covered) {
+		int[] widths = DiscStamps.halfWidths(range);
+		int cx = candidateX[c];
+		int cy = candidateY[c];
+		
+		double sum = 0;
+		int y0 = Math.max(cy - widths.length + 1, region.y);
+		int y1 = Math.min(cy + widths.length - 1, region.y + region.height - 1);
+		for(int y = y0; y <= y1; y++) {
+			int hw = widths[Math.abs(y - cy)];
+			int x0 = Math.max(cx - hw, region.x);
+			int x1 = Math.min(cx + hw, region.x + region.width - 1);
+			int row = (y - region.y) * region.width - region.x;
+			for(int x = x0; x <= x1; x++) {
+				if(!covered[row + x]) sum += grid.get(x, y);
+			}
+		}
+		return sum;
+	}
+	
+	private void cover(int c, boolean[] covered) {
+		int[] widths = DiscStamps.halfWidths(range);
+		int cx = candidateX[c];
+		int cy = candidateY[c];
+		
+		int y0 = Math.max(cy - widths.length + 1, region.y);
+		int y1 = Math.min(cy + widths.length - 1, region.y + region.height - 1);
+		for(int y = y0; y <= y1; y++) {
+			int hw = widths[Math.abs(y - cy)];
+			int x0 = Math.max(cx - hw, region.x);
+			int x1 = Math.min(cx + hw, region.x + region.width - 1);
+			int row = (y - region.y) * region.width - region.x;
+			for(int x = x0; x <= x1; x++) covered[row + x] = true;
+		}
+	}
+}
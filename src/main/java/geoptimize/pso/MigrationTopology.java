@@ -0,0 +1,14 @@
+package geoptimize.pso;
+
+/***
+ * Which islands receive an island's best solution when migrating.
+ * 
+ * @author Callan
+ *
+ */
+public enum MigrationTopology {
+	//island i sends to island i + 1
+	Ring,
+	//every island receives the best of all the other islands
+	FullyConnected
+}
@@ -0,0 +1,54 @@
+package geoptimize.pso;
+
+import java.util.concurrent.atomic.AtomicReference;
+
+/***
+ * Global best shared by asynchronous workers without locking.
+ * 
+ * The best is an immutable, versioned snapshot behind an AtomicReference.
+ * offer() only swaps in a new snapshot (compare-and-set) when its fitness
+ * is higher, so readers always see a complete solution and the fitness
+ * never goes down.
+ * 
+ * @author Callan
+ *
+ */
+public class PSOGlobalBest {
+	
+	public static final class Snapshot {
+		public final long version;
+		//never modified once published
+		public final PSOSolution solution;
+		
+		Snapshot(long version, PSOSolution solution) {
+			this.version = version;
+			this.solution = solution;
+		}
+	}
+	
+	private final AtomicReference<Snapshot> best;
+	
+	public PSOGlobalBest(PSOSolution initial) {
+		best = new AtomicReference<Snapshot>(new Snapshot(0, (PSOSolution)initial.clone()));
+	}
+	
+	public Snapshot get() { return best.get(); }
+	
+	/***
+	 * Publish candidate if it is better than the current best. 
+	 * The candidate is copied, so it can keep changing afterwards.
+	 * @param candidate
+	 * @return true if candidate became the global best
+	 */
+	public boolean offer(PSOSolution candidate) {
+		Snapshot current = best.get();
+		if(candidate.fitness <= current.solution.fitness) return false;
+		
+		PSOSolution copy = (PSOSolution)candidate.clone();
+		while(true) {
+			if(best.compareAndSet(current, new Snapshot(current.version + 1, copy))) return true;
+			current = best.get();
+			if(copy.fitness <= current.solution.fitness) return false;
+		}
+	}
+}
@@ -0,0 +1,161 @@
+package geoptimize.pso;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import geoptimize.GridData;
+import geoptimize.pso.execution.ExecutionMode;
+import geoptimize.pso.execution.PSOExecutor;
+import geoptimize.pso.execution.WorkerPoolExecutor;
+
+/***
+ * Island model PSO. Several independent swarms each run on their own
+ * thread and only exchange their best solutions every migrationInterval
+ * iterations. Islands share nothing but the read-only grid between 
+ * migrations, so they scale with cores, and separate swarms are not all
+ * pulled towards the same global best.
+ * 
+ * @author Callan
+ *
+ */
+public class PSOIslandSimulation {
+	
+	protected List<PSOSimulation> islands;
+	public List<PSOSimulation> getIslands() { return islands; }
+	
+	protected MigrationTopology topology;
+	protected int migrationInterval;
+	protected int currentIteration = 0;
+	public int getCurrentIteration() { return currentIteration; }
+	
+	//one thread per island
+	protected PSOExecutor executor;
+	
+	//wall clock time spent in run, islands step at the same time so their own times overlap
+	protected long elapsedNanos;
+	
+	/***
+	 * @param settings settings of each island, particles is per island.
+	 * With a seed, island i uses seed + i. A greedy seed is made once and
+	 * shared by every island. settings is not changed.
+	 * @param data shared by every island
+	 * @param nIslands
+	 * @param migrationInterval iterations between migrations
+	 * @param topology
+	 */
+	public PSOIslandSimulation(
+			PSOSettings settings, 
+			GridData data, 
+			int nIslands, 
+			int migrationInterval, 
+			MigrationTopology topology) {
+		
+		this.migrationInterval = Math.max(1, migrationInterval);
+		this.topology = topology;
+		
+		this.executor = new WorkerPoolExecutor(Math.min(nIslands, PSOExecutor.defaultThreads()));
+		
+		//each island is stepped by a single thread
+		PSOSettings base = settings.copy();
+		base.executionMode = ExecutionMode.Sequential;
+		if(base.seedSolution == null && base.greedySeed) base.seedSolution = PSOSimulation.greedySeed(base, data, executor);
+		
+		List<PSOSimulation> list = new ArrayList<PSOSimulation>(nIslands);
+		for(int i = 0; i < nIslands; i++) {
+			PSOSettings island = base.copy();
+			if(base.seed != null) island.seed = base.seed + i;
+			list.add(new PSOSimulation(island, data));
+		}
+		
+		this.islands = Collections.unmodifiableList(list);
+	}
+	
+	/***
+	 * Best solution over all islands
+	 * @return
+	 */
+	public PSOSolution getGlobalBest() {
+		PSOSolution best = islands.get(0).getGlobalBest();
+		for(PSOSimulation island : islands) {
+			if(island.getGlobalBest().getFitness() > best.getFitness()) {
+				best = island.getGlobalBest();
+			}
+		}
+		return best;
+	}
+	
+	/***
+	 * Evaluations summed over all islands, and the wall clock time of run
+	 * @return
+	 */
+	public PSOStatistics getStatistics() {
+		PSOStatistics total = new PSOStatistics();
+		for(PSOSimulation island : islands) {
+			total.addEvaluations(island.getStatistics().getEvaluations());
+			total.addPruned(island.getStatistics().getPruned());
+		}
+		total.addElapsedNanos(elapsedNanos);
+		return total;
+	}
+	
+	/***
+	 * Run every island for the given number of iterations, migrating 
+	 * every migrationInterval iterations.
+	 * @param iterations
+	 */
+	public void run(int iterations) {
+		long runStart = System.nanoTime();
+		int target = currentIteration + iterations;
+		while(currentIteration < target) {
+			int epoch = Math.min(migrationInterval - currentIteration % migrationInterval, target - currentIteration);
+			
+			executor.forRange(islands.size(), (start, end) -> {
+				for(int i = start; i < end; i++) {
+					PSOSimulation island = islands.get(i);
+					for(int k = 0; k < epoch; k++) island.step();
+				}
+			});
+			currentIteration += epoch;
+			
+			if(currentIteration % migrationInterval == 0) migrate();
+		}
+		elapsedNanos += System.nanoTime() - runStart;
+	}
+	
+	/***
+	 * Send copies of each island's best to its neighbours.
+	 * Copies are taken first so an island never receives a solution
+	 * that arrived in the same migration.
+	 */
+	public void migrate() {
+		int n = islands.size();
+		if(n < 2) return;
+		
+		List<PSOSolution> bests = new ArrayList<PSOSolution>(n);
+		for(PSOSimulation island : islands) {
+			bests.add((PSOSolution)island.getGlobalBest().clone());
+		}
+		
+		for(int i = 0; i < n; i++) {
+			switch(topology) {
+			case Ring:
+				islands.get((i + 1) % n).acceptMigrant(bests.get(i));
+				break;
+			case FullyConnected:
+				PSOSolution best = null;
+				for(int j = 0; j < n; j++) {
+					if(j == i) continue;
+					if(best == null || bests.get(j).getFitness() > best.getFitness()) best = bests.get(j);
+				}
+				islands.get(i).acceptMigrant(best);
+				break;
+			}
+		}
+	}
+	
+	public void shutdown() {
+		executor.close();
+		for(PSOSimulation island : islands) island.shutdown();
+	}
+}
@@ -1,16 +1,9 @@
 package geoptimize.pso;
 
 import java.awt.Rectangle;
-import java.awt.image.BufferedImage;
-import java.awt.image.DataBuffer;
-import java.util.ArrayList;
-import java.util.List;
 import java.util.Random;
-import java.util.Vector;
-import javax.vecmath.Vector2f;
 
-import geoptimize.GridData;
-import geoptimize.ServiceNode;
+import geoptimize.CandidateSites;
 import geoptimize.helper.MathHelper;
 import geoptimize.pso.fitness.PSOFitnessFunction;
 
@@ -19,20 +12,29 @@ import geoptimize.pso.fitness.PSOFitnessFunction;
  * A particle containing a current solution, and a local best solution
  * Also contains particle velocity and inertia.
  * 
+ * The state itself lives in the PSOSwarm arrays, this is a view of
+ * particle [index] of the swarm.
+ * 
  * @author Callan
  *
  */
 public class PSOParticle {
 	
-	protected PSOSolution current;
-	protected float[] inertias;
-	protected Vector2f[] velocities;
+	protected final PSOSwarm swarm;
+	protected final int index;
+	
+	//first node of this particle in the swarm arrays
+	protected final int offset;
 	
+	protected PSOSolution current;
 	protected PSOSolution localBest;
 	
 	protected int nNodes;
-	protected int range;
 	protected Rectangle region;
+	protected Random random;
+	
+	//when set, nodes only stand on these sites
+	protected CandidateSites sites;
 	
 	//TODO: might want to move these to the GUI
 	float localBestWeight = 0.3f;
@@ -41,43 +43,32 @@ public class PSOParticle {
 	
 	public PSOSolution getCurrent() { return current; }
 	public PSOSolution getLocalBest() { return localBest; }
+	public int getIndex() { return index; }
 	
-	public PSOParticle(int nNodes, int range, float lbest, float gbest, float inertia, Rectangle region) {
-		this.nNodes = nNodes;
-		this.range = range;
+	public PSOParticle(
+			PSOSwarm swarm, 
+			int index, 
+			int range, 
+			float lbest, 
+			float gbest, 
+			float inertia, 
+			Rectangle region, 
+			Random random) {
+		this.swarm = swarm;
+		this.index = index;
+		this.nNodes = swarm.nNodes;
+		this.offset = index * nNodes;
 		this.localBestWeight = lbest;
 		this.globalBestWeight = gbest;
 		this.inertia = inertia;
 		this.region = region;
+		this.random = random;
 		
-		this.current = PSOSolution.CreateRandom(nNodes, range, region);
-		this.inertias = new float[nNodes];
-		this.velocities = new Vector2f[nNodes];
-		for(int i = 0; i < nNodes; i++) {
-			inertias[i] = inertia;
-			velocities[i] = new Vector2f(0, 0);
-		}
-		
-		this.localBest = (PSOSolution)this.current.clone();
-	}
-	
-	private PSOParticle() { }
-	
-	/***
-	 * Do a full clone
-	 */
-	public Object clone() {
-		PSOParticle p = new PSOParticle();
-		
-		p.nNodes = this.nNodes;		
-		p.range = this.range;
-		p.region = (Rectangle)this.region.clone();
-		
+		this.current = new PSOSolution(swarm.x, swarm.y, offset, nNodes, range);
+		this.localBest = new PSOSolution(swarm.lbestX, swarm.lbestY, offset, nNodes, range);
 		
-		p.current = (PSOSolution)this.current.clone();
-		p.localBest = (PSOSolution)this.localBest.clone();
-		
-		return p;
+		current.randomize(region, random);
+		localBest.copyFrom(current);
 	}
 	
 	/***
@@ -88,33 +79,40 @@ public class PSOParticle {
 	public void step(PSOSolution globalBest) {
 		///step using globalBest, localBest, inertias, velocities
 		
-		
-		Random r = new Random();
 		int aMax = 150;
 		
+		int[] x = swarm.x;
+		int[] y = swarm.y;
+		float[] vx = swarm.vx;
+		float[] vy = swarm.vy;
+		
 		for(int i = 0; i < nNodes; i++) {
+			int k = offset + i;
 			
-			velocities[i].x = 
-					inertias[i] * velocities[i].x +
-					localBestWeight  * r.nextInt(2) * MathHelper.clamp(-aMax, aMax, localBest.nodes.get(i).getPosition().x  - current.nodes.get(i).getPosition().x) +
-					globalBestWeight * r.nextInt(2) * MathHelper.clamp(-aMax, aMax, globalBest.nodes.get(i).getPosition().x - current.nodes.get(i).getPosition().x);
+			vx[k] = 
+					inertia * vx[k] +
+					localBestWeight  * random.nextInt(2) * MathHelper.clamp(-aMax, aMax, localBest.getX(i)  - x[k]) +
+					globalBestWeight * random.nextInt(2) * MathHelper.clamp(-aMax, aMax, globalBest.getX(i) - x[k]);
 			
-			velocities[i].y =
-					inertias[i] * velocities[i].y +
-					localBestWeight  * r.nextInt(2) * MathHelper.clamp(-aMax, aMax, localBest.nodes.get(i).getPosition().y  - current.nodes.get(i).getPosition().y) +
-					globalBestWeight * r.nextInt(2) * MathHelper.clamp(-aMax, aMax, globalBest.nodes.get(i).getPosition().y - current.nodes.get(i).getPosition().y);
+			vy[k] =
+					inertia * vy[k] +
+					localBestWeight  * random.nextInt(2) * MathHelper.clamp(-aMax, aMax, localBest.getY(i)  - y[k]) +
+					globalBestWeight * random.nextInt(2) * MathHelper.clamp(-aMax, aMax, globalBest.getY(i) - y[k]);
 			
-			velocities[i].x = MathHelper.clamp(-(float)region.width, (float)region.width, velocities[i].x);
-			velocities[i].y = MathHelper.clamp(-(float)region.height, (float)region.height, velocities[i].y);
+			vx[k] = MathHelper.clamp(-(float)region.width, (float)region.width, vx[k]);
+			vy[k] = MathHelper.clamp(-(float)region.height, (float)region.height, vy[k]);
 			
-			int x = (int)(current.nodes.get(i).getPosition().x + velocities[i].x);
-			int y = (int)(current.nodes.get(i).getPosition().y + velocities[i].y);
+			int nx = (int)(x[k] + vx[k]);
+			int ny = (int)(y[k] + vy[k]);
 			
-			x = MathHelper.clamp((int)region.getMinX(), (int)region.getMaxX(), x);
-			y = MathHelper.clamp((int)region.getMinY(), (int)region.getMaxY(), y);
-			
-			current.nodes.get(i).setPosition(x, y);
+			x[k] = MathHelper.clamp(region.x, region.x + region.width, nx);
+			y[k] = MathHelper.clamp(region.y, region.y + region.height, ny);
 			
+			if(sites != null) {
+				int s = sites.nearest(x[k], y[k]);
+				x[k] = sites.getX(s);
+				y[k] = sites.getY(s);
+			}
 		}
 	}
 	
@@ -125,25 +123,69 @@ public class PSOParticle {
 	 * @param function
 	 */
 	public void updateFitness(PSOFitnessFunction function) {
-		current.fitness = function.calcFitness(current);
+		updateFitness(function.calcFitness(current));
+	}
+	
+	/***
+	 * updateFitness, but skips the exact evaluation when the function's
+	 * upper bound shows the current solution can not beat the local best.
+	 * The current fitness is then NaN, as it is not known. The local best
+	 * is updated exactly as updateFitness(function) would.
+	 * @param function
+	 * @return false if the exact evaluation was skipped
+	 */
+	public boolean updateFitnessPruned(PSOFitnessFunction function) {
+		if(prune(function)) return false;
+		updateFitness(function);
+		return true;
+	}
+	
+	/***
+	 * True if the function's upper bound shows the current solution can
+	 * not beat the local best. Its fitness is then set to NaN and it does
+	 * not need an exact evaluation.
+	 * @param function
+	 * @return
+	 */
+	public boolean prune(PSOFitnessFunction function) {
+		if(!function.supportsUpperBound() || function.calcUpperBound(current) > localBest.fitness) return false;
+		current.fitness = Float.NaN;
+		return true;
+	}
+	
+	/***
+	 * Use when the fitness of the current solution has already been
+	 * calculated elsewhere (e.g. a batch over the whole swarm).
+	 * @param fitness
+	 */
+	public void updateFitness(float fitness) {
+		current.fitness = fitness;
 		
 		if(current.fitness > localBest.fitness) {
-			localBest = (PSOSolution)current.clone();
+			localBest.copyFrom(current);
 		}
 	}
 	
+	/***
+	 * Recalculate both the local best and current fitness, e.g. after the
+	 * grid or range has changed.
+	 * @param function
+	 */
+	public void reevaluate(PSOFitnessFunction function) {
+		localBest.fitness = function.calcFitness(localBest);
+		updateFitness(function.calcFitness(current));
+	}
+	
 	
 	/***
 	 * Random step test, simply moves particles randomly.
 	 */
 	private void randomStep() {
-		Random r = new Random();
-
-		for(ServiceNode n : current.nodes)
+		for(int i = 0; i < nNodes; i++)
 		{
-			n.setPosition(
-				MathHelper.clamp(region.x, region.x + region.width, n.getPosition().x - 5 + r.nextInt(11)), 
-				MathHelper.clamp(region.y, region.y + region.height, n.getPosition().y - 5 + r.nextInt(11))
+			current.setPosition(i,
+				MathHelper.clamp(region.x, region.x + region.width, current.getX(i) - 5 + random.nextInt(11)), 
+				MathHelper.clamp(region.y, region.y + region.height, current.getY(i) - 5 + random.nextInt(11))
 			);
 		}		
 	}
@@ -0,0 +1,131 @@
+package geoptimize.pso;
+
+import java.awt.Rectangle;
+import java.util.List;
+
+import geoptimize.GridData;
+import geoptimize.helper.MathHelper;
+import geoptimize.pso.stopping.StoppingCriterion;
+
+/***
+ * Coarse to fine PSO on a GridData pyramid.
+ * 
+ * The swarm starts on a sum-pooled copy of the grid at 1/2^levels 
+ * resolution, where an evaluation costs a fraction of a full resolution 
+ * one (1/64 of the cells at 1/8). Each promotion moves it to the next finer
+ * level, doubling positions and ranges, so full resolution evaluations are
+ * only spent refining a swarm that is already close.
+ * 
+ * @author Callan
+ *
+ */
+public class PSOPyramidSimulation {
+	
+	protected PSOSettings settings;
+	protected GridData data;
+	
+	protected PSOSimulation simulation;
+	public PSOSimulation getSimulation() { return simulation; }
+	
+	protected int level;
+	public int getLevel() { return level; }
+	
+	/***
+	 * @param settings full resolution settings
+	 * @param data full resolution grid
+	 * @param levels number of halvings for the starting level
+	 * @throws IllegalArgumentException for candidate sites or distributed
+	 * workers, neither can change grids
+	 */
+	public PSOPyramidSimulation(PSOSettings settings, GridData data, int levels) {
+		if(settings.sites != null) {
+			throw new IllegalArgumentException("Candidate sites can not be used with a pyramid");
+		}
+		if(settings.workers != null && !settings.workers.isEmpty()) {
+			throw new IllegalArgumentException("Distributed fitness can not be used with a pyramid");
+		}
+		this.settings = settings.copy();
+		this.data = data;
+		this.level = levels;
+		
+		PSOSettings coarse = settings.copy();
+		coarse.region = regionAt(settings.region, level);
+		coarse.range = rangeAt(settings.range, level);
+		if(settings.seedSolution != null) {
+			coarse.seedSolution = solutionAt(settings.seedSolution, level, coarse.region, coarse.range);
+		}
+		simulation = new PSOSimulation(coarse, data.getLevel(level));
+	}
+	
+	/***
+	 * Smallest region of the given level covering a full resolution region
+	 */
+	public static Rectangle regionAt(Rectangle region, int level) {
+		int s = 1 << level;
+		int x0 = Math.floorDiv(region.x, s);
+		int y0 = Math.floorDiv(region.y, s);
+		int x1 = Math.floorDiv(region.x + region.width + s - 1, s);
+		int y1 = Math.floorDiv(region.y + region.height + s - 1, s);
+		return new Rectangle(x0, y0, x1 - x0, y1 - y0);
+	}
+	
+	public static int rangeAt(int range, int level) {
+		return Math.max(1, Math.round(range / (float)(1 << level)));
+	}
+	
+	/***
+	 * A full resolution solution moved onto the given level. Its fitness
+	 * is not known there, so it is negative infinity.
+	 * @param solution
+	 * @param level
+	 * @param region region of the level, see regionAt
+	 * @param range range on the level, see rangeAt
+	 * @return
+	 */
+	public static PSOSolution solutionAt(PSOSolution solution, int level, Rectangle region, int range) {
+		PSOSolution scaled = new PSOSolution(solution.size(), range);
+		for(int i = 0; i < solution.size(); i++) {
+			scaled.setPosition(i, 
+					MathHelper.clamp(region.x, region.x + region.width - 1, solution.getX(i) >> level), 
+					MathHelper.clamp(region.y, region.y + region.height - 1, solution.getY(i) >> level));
+		}
+		scaled.fitness = Float.NEGATIVE_INFINITY;
+		return scaled;
+	}
+	
+	/***
+	 * Move the swarm to the next finer level.
+	 * @return false if already at full resolution
+	 */
+	public boolean promote() {
+		if(level == 0) return false;
+		level--;
+		simulation.rescale(
+				data.getLevel(level), 
+				regionAt(settings.region, level), 
+				rangeAt(settings.range, level), 
+				2);
+		return true;
+	}
+	
+	/***
+	 * Run each level for up to iterationsPerLevel iterations, promoting
+	 * early when a criterion fires (e.g. stagnation), until full resolution
+	 * has been run.
+	 * @param iterationsPerLevel
+	 * @param criteria
+	 * @return why the full resolution run stopped
+	 */
+	public String run(int iterationsPerLevel, List<StoppingCriterion> criteria) {
+		while(true) {
+			String reason = simulation.run(simulation.getCurrentIteration() + iterationsPerLevel, criteria);
+			System.out.println("Level " + level + " : " + reason 
+					+ ", fitness " + simulation.getGlobalBest().getFitness());
+			if(!promote()) return reason;
+		}
+	}
+	
+	public void shutdown() {
+		simulation.shutdown();
+	}
+}
@@ -1,9 +1,12 @@
 package geoptimize.pso;
 
 import java.awt.Rectangle;
+import java.net.InetSocketAddress;
+import java.util.List;
 
+import geoptimize.CandidateSites;
+import geoptimize.pso.execution.ExecutionMode;
 import geoptimize.pso.fitness.FitnessType;
-import geoptimize.pso.fitness.PSOFitnessFunction;
 
 public class PSOSettings {
 	
@@ -14,10 +17,72 @@ public class PSOSettings {
 	//Simulation/Particle Settings
 	public int particles;
 	public Rectangle region;
-	public FitnessType fitnessType;
+	public FitnessType fitnessType = FitnessType.BinaryRange;
+	public ExecutionMode executionMode = ExecutionMode.WorkerPool;
+	public Distribution distribution = Distribution.Random;
+	
+	//seed for the swarm's random numbers, a different run each time when null
+	public Long seed;
 
 	public float localBestWeight = 0.3f;
 	public float globalBestWeight = 0.1f;
 	public float inertia = 1f;
 	
+	//skip exact evaluations that can not beat a particle's local best
+	public boolean upperBoundPruning = false;
+	
+	//discs kept in the fitness function's DiscCoverageCache, 0 for no cache
+	//(or PRUNING_DISC_CACHE when upperBoundPruning is on)
+	public int discCacheCapacity = 0;
+	
+	//disc cache used for the upper bounds when pruning and no size was given
+	public static final int PRUNING_DISC_CACHE = 1 << 16;
+	
+	//solutions kept in a PSOFitnessCached in front of the fitness function, 0 for no cache
+	public int fitnessCacheCapacity = 0;
+	
+	//Sites nodes are restricted to, anywhere in the region when null
+	public CandidateSites sites;
+	
+	//Start one particle from a lazy greedy placement, candidates every 
+	//greedyStride cells (or the candidate sites)
+	public boolean greedySeed = false;
+	public int greedyStride = 8;
+	
+	//Start one particle from this solution instead, so a greedy placement
+	//can be made once and shared by several simulations
+	public PSOSolution seedSolution;
+	
+	//Remote fitness workers, evaluated locally when empty
+	public List<InetSocketAddress> workers;
+	public int workerTimeoutMillis = 30000;
+	
+	/***
+	 * Copy of these settings, the region is copied too
+	 * @return
+	 */
+	public PSOSettings copy() {
+		PSOSettings s = new PSOSettings();
+		s.nodes = nodes;
+		s.range = range;
+		s.particles = particles;
+		s.region = region == null ? null : new Rectangle(region);
+		s.fitnessType = fitnessType;
+		s.executionMode = executionMode;
+		s.distribution = distribution;
+		s.seed = seed;
+		s.localBestWeight = localBestWeight;
+		s.globalBestWeight = globalBestWeight;
+		s.inertia = inertia;
+		s.upperBoundPruning = upperBoundPruning;
+		s.discCacheCapacity = discCacheCapacity;
+		s.fitnessCacheCapacity = fitnessCacheCapacity;
+		s.sites = sites;
+		s.greedySeed = greedySeed;
+		s.greedyStride = greedyStride;
+		s.seedSolution = seedSolution;
+		s.workers = workers;
+		s.workerTimeoutMillis = workerTimeoutMillis;
+		return s;
+	}
 }
@@ -2,16 +2,24 @@ package geoptimize.pso;
 
 import java.awt.Rectangle;
 import java.awt.image.BufferedImage;
-import java.awt.image.DataBuffer;
 import java.util.ArrayList;
-import java.util.LinkedList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
 import java.util.Random;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLong;
 
+import geoptimize.CandidateSites;
 import geoptimize.GridData;
-import geoptimize.ServiceNode;
-import geoptimize.helper.MathHelper;
-import geoptimize.pso.fitness.PSOFitnessBinaryRange;
+import geoptimize.distributed.PSOFitnessDistributed;
+import geoptimize.pso.execution.ExecutionMode;
+import geoptimize.pso.execution.PSOExecutor;
+import geoptimize.pso.fitness.FitnessType;
+import geoptimize.pso.fitness.PSOFitnessCached;
+import geoptimize.pso.fitness.PSOFitnessCandidateSites;
 import geoptimize.pso.fitness.PSOFitnessFunction;
+import geoptimize.pso.stopping.StoppingCriterion;
 
 /***
  * Put actual simulation logic in here,
@@ -22,29 +30,66 @@ import geoptimize.pso.fitness.PSOFitnessFunction;
  */
 public class PSOSimulation {
 	
-	protected LinkedList<PSOParticle> particles;
-	public LinkedList<PSOParticle> getParticles() { return particles; }
+	protected PSOSwarm swarm;
+	public PSOSwarm getSwarm() { return swarm; }
+	
+	protected List<PSOParticle> particles;
+	public List<PSOParticle> getParticles() { return particles; }
 	
 	protected PSOSolution globalBest;
 	public PSOSolution getGlobalBest() { return globalBest; }
 	
 	protected PSOFitnessFunction fitnessFunction;
+	public PSOFitnessFunction getFitnessFunction() { return fitnessFunction; }
+	//the swarm's current solutions split into one batch per thread, [batchStart[b], batchStart[b + 1])
+	protected List<List<PSOSolution>> batches;
+	protected int[] batchStart;
+	protected float[][] batchFitness;
+	//what is left of each batch after pruning, and the particles they belong to
+	protected List<List<PSOSolution>> unpruned;
+	protected int[][] unprunedIndex;
+	//the first evaluation is never pruned
+	private boolean pruneBatches;
+	protected FitnessType fitnessType;
+	public FitnessType getFitnessType() { return fitnessType; }
 	
-	//TODO: atm, always using random
 	protected Distribution particleDistribution;
+	public Distribution getParticleDistribution() { return particleDistribution; }
 
 	protected int nNodes;
 	protected int range;
 	protected float lbestWeight;
 	protected float gbestWeight;
 	protected float inertia;
+	protected boolean upperBoundPruning;
+	protected int discCacheCapacity;
+	protected int fitnessCacheCapacity;
+	protected boolean distributed;
+	protected CandidateSites sites;
+	
+	protected ExecutionMode executionMode;
+	protected PSOExecutor executor;
+	public ExecutionMode getExecutionMode() { return executionMode; }
 	
-	protected boolean parallelMode = true;
+	//created once so a step does not allocate a new lambda
+	private final PSOExecutor.RangeTask moveTask = this::moveRange;
+	private final PSOExecutor.RangeTask stepTask = this::stepRange;
+	private final PSOExecutor.RangeTask batchTask = this::updateFitnessBatches;
 	
 	protected int nParticles;
 	protected int currentIteration = 0;
 	public int getCurrentIteration() { return currentIteration; }
 	
+	protected PSOStatistics statistics = new PSOStatistics();
+	public PSOStatistics getStatistics() { return statistics; }
+	
+	//set to end an asynchronous run early
+	protected volatile boolean stopRequested;
+	
+	//why the last run ended
+	protected String stopReason;
+	public String getStopReason() { return stopReason; }
+	
 	protected Rectangle region;
 	protected GridData data;
 	
@@ -58,46 +103,135 @@ public class PSOSimulation {
 			int nParticles,  
 			Rectangle region, 
 			BufferedImage dataimg) {
+		this(nNodes, range, lbestWeight, gbestWeight, inertia, nParticles, region, dataimg, 
+				FitnessType.BinaryRange);
+	}
+	
+	public PSOSimulation(
+			int nNodes, 
+			int range,
+			float lbestWeight,
+			float gbestWeight,
+			float inertia,
+			int nParticles,  
+			Rectangle region, 
+			BufferedImage dataimg,
+			FitnessType fitnessType) {
+		this(createSettings(nNodes, range, lbestWeight, gbestWeight, inertia, nParticles, region, fitnessType), 
+				new GridData(dataimg, true));
+	}
+	
+	/***
+	 * Simulation on an already loaded grid. The grid is only read, so it 
+	 * can be shared between simulations.
+	 * @param settings
+	 * @param data
+	 */
+	public PSOSimulation(PSOSettings settings, GridData data) {
 		
 		System.out.println("New Simulation!");
-		System.out.println("nNodes : " + nNodes);
-		System.out.println("range : " + range);
-		System.out.println("Particles : " + nParticles);
-		System.out.println("Region : " + region);
-		System.out.println("Data : " + dataimg);
+		System.out.println("nNodes : " + settings.nodes);
+		System.out.println("range : " + settings.range);
+		System.out.println("Particles : " + settings.particles);
+		System.out.println("Region : " + settings.region);
+		System.out.println("Data : " + data.width + "x" + data.height);
+		System.out.println("Fitness : " + settings.fitnessType);
 		
-		this.nNodes = nNodes;
-		this.range = range;
-		this.lbestWeight = lbestWeight;
-		this.gbestWeight = gbestWeight;
-		this.inertia = inertia;
+		this.nNodes = settings.nodes;
+		this.range = settings.range;
+		this.lbestWeight = settings.localBestWeight;
+		this.gbestWeight = settings.globalBestWeight;
+		this.inertia = settings.inertia;
+		this.upperBoundPruning = settings.upperBoundPruning;
 		
-		this.nParticles = nParticles;
+		this.nParticles = settings.particles;
 		
-		this.region = region;
-		this.data = new GridData(dataimg);
-		this.fitnessFunction = new PSOFitnessBinaryRange(data, region);
+		this.region = new Rectangle(settings.region);
+		this.data = data;
+		if(data.hasRunIndex()) {
+			System.out.println("Populated cells : " 
+					+ data.countPopulated(region.x, region.y, region.x + region.width, region.y + region.height)
+					+ " / " + (region.width * region.height));
+		}
+		this.fitnessType = settings.fitnessType;
+		//the upper bound is a disc sum per node, only pruning reads them
+		this.discCacheCapacity = settings.discCacheCapacity > 0 || !upperBoundPruning ? 
+				settings.discCacheCapacity : PSOSettings.PRUNING_DISC_CACHE;
+		this.fitnessCacheCapacity = settings.fitnessCacheCapacity;
+		this.distributed = settings.workers != null && !settings.workers.isEmpty();
+		//nodes only snap to sites they are allowed on
+		this.sites = settings.sites == null ? null : settings.sites.within(region);
+		this.executionMode = settings.executionMode;
+		this.executor = PSOExecutor.create(executionMode);
 		
+		if(distributed) {
+			this.fitnessFunction = wrapFitnessFunction(new PSOFitnessDistributed(
+					data, region, fitnessType, settings.workers, settings.workerTimeoutMillis));
+		} else if(sites != null) {
+			this.fitnessFunction = wrapFitnessFunction(new PSOFitnessCandidateSites(data, region, sites, range, executor));
+		} else {
+			this.fitnessFunction = wrapFitnessFunction(PSOFitnessFunction.create(fitnessType, data, region));
+		}
 		
 		//Create particles with random solutions
-		this.particles = new LinkedList<PSOParticle>();
-		for(int i = 0; i < nParticles; i++) {
-			particles.add(new PSOParticle(
-					nNodes, 
-					range, 
-					lbestWeight, 
-					gbestWeight, 
-					inertia, 
-					region));
+		Random random = settings.seed != null ? new Random(settings.seed) : new Random();
+		this.swarm = new PSOSwarm(
+				nParticles, 
+				nNodes, 
+				range, 
+				lbestWeight, 
+				gbestWeight, 
+				inertia, 
+				region, 
+				random);
+		this.particles = Collections.unmodifiableList(Arrays.asList(swarm.particles));
+		this.globalBest = swarm.getGlobalBest();
+		
+		//then move them to the starting distribution asked for
+		this.particleDistribution = settings.distribution;
+		if(particleDistribution != Distribution.Random) {
+			new ParticleInitializer(particleDistribution, data, region).initialize(swarm, random);
 		}
+		if(sites != null) swarm.snapTo(sites);
+		PSOSolution seed = settings.seedSolution;
+		if(seed == null && settings.greedySeed) seed = greedySeed(settings, data, executor);
+		if(seed != null) swarm.seed(0, seed);
+		
+		splitBatches();
 		
 		//calculate initial fitness for particles
-		for(PSOParticle p : particles) {
-			p.updateFitness(fitnessFunction);
+		if(fitnessFunction.supportsBatch()) {
+			executor.forRange(batches.size(), batchTask);
+		} else {
+			executor.forRange(nParticles, (start, end) -> {
+				for(int i = start; i < end; i++) swarm.particles[i].updateFitness(fitnessFunction);
+			});
 		}
 		
 		//update initial global best
-		globalBest = (PSOSolution)findGlobalBest().clone();
+		swarm.updateGlobalBest();
+		pruneBatches = upperBoundPruning;
+	}
+	
+	private static PSOSettings createSettings(
+			int nNodes, 
+			int range,
+			float lbestWeight,
+			float gbestWeight,
+			float inertia,
+			int nParticles,  
+			Rectangle region,
+			FitnessType fitnessType) {
+		PSOSettings settings = new PSOSettings();
+		settings.nodes = nNodes;
+		settings.range = range;
+		settings.localBestWeight = lbestWeight;
+		settings.globalBestWeight = gbestWeight;
+		settings.inertia = inertia;
+		settings.particles = nParticles;
+		settings.region = region;
+		settings.fitnessType = fitnessType;
+		return settings;
 	}
 	
 	/***
@@ -107,66 +241,332 @@ public class PSOSimulation {
 	 *  3. calculate newer localbests and global bests
 	 */
 	public void step() {
+		long start = System.nanoTime();
 		
 		//move all particles (Synchronous)
-		if(parallelMode) {
-			moveParallel();
+		long pruned = statistics.getPruned();
+		if(fitnessFunction.supportsBatch()) {
+			moveBatch();
 		} else {
-			moveSequential();
+			executor.forRange(nParticles, moveTask);
 		}
 		
-		//update global best
-		globalBest = (PSOSolution)findGlobalBest().clone();
+		//update global best, forRange has returned so every particle is done
+		swarm.updateGlobalBest();
 		
 		currentIteration++;
+		//only exact evaluations count, pruned ones are counted separately
+		statistics.addEvaluations(nParticles - (statistics.getPruned() - pruned));
+		statistics.addElapsedNanos(System.nanoTime() - start);
 	}
 	
-	private class ParticleUpdateThread extends Thread {	
-		PSOParticle p;
+	/***
+	 * Step until maxIterations is reached or one of the criteria says to stop.
+	 * Criteria are reset first.
+	 * @param maxIterations
+	 * @param criteria
+	 * @return why the run stopped
+	 */
+	public String run(int maxIterations, List<StoppingCriterion> criteria) {
+		for(StoppingCriterion c : criteria) c.reset();
 		
-		public ParticleUpdateThread(PSOParticle p) {
-			this.p = p; 
-		}
-		@Override
-		public void run() {
-			p.step(globalBest);
-			p.updateFitness(fitnessFunction);
+		stopReason = null;
+		while(stopReason == null) {
+			if(currentIteration >= maxIterations) {
+				stopReason = "Iteration limit " + maxIterations + " reached";
+				break;
+			}
+			step();
+			stopReason = StoppingCriterion.checkAll(criteria, this);
 		}
+		return stopReason;
 	}
 	
-	private void moveSequential() {
-		for(PSOParticle p : particles) {
-			p.step(globalBest);
-			p.updateFitness(fitnessFunction);
+	/***
+	 * Record why a run driven from outside (e.g. SimulationManager) ended
+	 */
+	public void setStopReason(String reason) {
+		stopReason = reason;
+	}
+	
+	/***
+	 * Asynchronous PSO. Each worker keeps claiming the next particle, 
+	 * stepping and evaluating it against the latest published global best,
+	 * without waiting for the rest of the swarm. Improvements are published
+	 * through a PSOGlobalBest, so there is no per-iteration barrier or 
+	 * global best scan. Particles are claimed round robin from a shared 
+	 * counter, so every particle keeps moving however many workers actually
+	 * get a thread.
+	 * 
+	 * Runs until maxEvaluations particle updates have been done, or 
+	 * stopAsync() is called. The iteration count advances by 
+	 * updates / particles, evaluations only count the exact ones.
+	 * @param maxEvaluations
+	 * @return statistics for this run only
+	 */
+	public PSOStatistics runAsync(long maxEvaluations) {
+		long start = System.nanoTime();
+		stopRequested = false;
+		
+		PSOGlobalBest best = new PSOGlobalBest(globalBest);
+		AtomicLong claimed = new AtomicLong();
+		AtomicLong next = new AtomicLong();
+		AtomicIntegerArray busy = new AtomicIntegerArray(nParticles);
+		long pruned = statistics.getPruned();
+		
+		int workers = executionMode == ExecutionMode.Sequential ? 
+				1 : Math.min(nParticles, PSOExecutor.defaultThreads());
+		
+		executor.forRange(workers, (first, last) -> {
+			for(int w = first; w < last; w++) {
+				runAsyncWorker(best, claimed, next, busy, maxEvaluations);
+			}
+		});
+		
+		globalBest.copyFrom(best.get().solution);
+		
+		long updates = Math.min(claimed.get(), maxEvaluations);
+		long evaluations = updates - (statistics.getPruned() - pruned);
+		long elapsed = System.nanoTime() - start;
+		currentIteration += updates / nParticles;
+		statistics.addEvaluations(evaluations);
+		statistics.addElapsedNanos(elapsed);
+		
+		PSOStatistics run = new PSOStatistics();
+		run.addEvaluations(evaluations);
+		run.addElapsedNanos(elapsed);
+		return run;
+	}
+	
+	/***
+	 * Ask a running runAsync to finish after the current evaluations
+	 */
+	public void stopAsync() {
+		stopRequested = true;
+	}
+	
+	/***
+	 * Update particles next % nParticles until the budget is used up. A
+	 * particle another worker is still updating is skipped.
+	 */
+	private void runAsyncWorker(PSOGlobalBest best, AtomicLong claimed, AtomicLong next, 
+			AtomicIntegerArray busy, long maxEvaluations) {
+		while(!stopRequested) {
+			int i = (int)(next.getAndIncrement() % nParticles);
+			if(!busy.compareAndSet(i, 0, 1)) continue;
+			
+			try {
+				if(claimed.getAndIncrement() >= maxEvaluations) return;
+				
+				PSOParticle p = swarm.particles[i];
+				p.step(best.get().solution);
+				
+				float previous = p.localBest.fitness;
+				updateFitness(p);
+				if(p.localBest.fitness > previous) {
+					best.offer(p.localBest);
+				}
+			} finally {
+				busy.set(i, 0);
+			}
 		}
 	}
 	
-	private void moveParallel() {
-		ArrayList<Thread> threads = new ArrayList<Thread>(); 
-		for(int i = 0; i < particles.size(); i++) {
-			Thread t = new ParticleUpdateThread(particles.get(i));
-			t.start();
+	/***
+	 * Continue on a different grid, e.g. the next finer level of a
+	 * GridData pyramid. Swarm positions and velocities are scaled by factor,
+	 * and all local bests and the global best are re-evaluated on the new grid.
+	 * @param data
+	 * @param region region on the new grid
+	 * @param range node range on the new grid
+	 * @param factor resolution of the new grid / resolution of the old grid
+	 */
+	public void rescale(GridData data, Rectangle region, int range, int factor) {
+		if(distributed) {
+			throw new UnsupportedOperationException("Distributed fitness can not change grids");
+		}
+		if(sites != null) {
+			throw new UnsupportedOperationException("Candidate sites can not change grids");
 		}
-		for(Thread t : threads) {
+		
+		this.data = data;
+		this.region = new Rectangle(region);
+		this.range = range;
+		this.fitnessFunction = wrapFitnessFunction(PSOFitnessFunction.create(fitnessType, data, this.region));
+		
+		swarm.rescale(factor, this.region, range);
+		executor.forRange(nParticles, (start, end) -> {
+			for(int i = start; i < end; i++) swarm.particles[i].reevaluate(fitnessFunction);
+		});
+		swarm.updateGlobalBest();
+	}
+	
+	/***
+	 * Add the disc and solution caches asked for in the settings
+	 */
+	private PSOFitnessFunction wrapFitnessFunction(PSOFitnessFunction function) {
+		if(discCacheCapacity > 0) function.enableDiscCache(discCacheCapacity);
+		if(fitnessCacheCapacity > 0) function = new PSOFitnessCached(function, fitnessCacheCapacity);
+		return function;
+	}
+	
+	/***
+	 * Take a good solution found elsewhere (e.g. another island).
+	 * It replaces the particle with the worst local best if it is better.
+	 * @param migrant
+	 * @return true if the migrant was accepted
+	 */
+	public boolean acceptMigrant(PSOSolution migrant) {
+		return swarm.replaceWorst(migrant);
+	}
+	
+	/***
+	 * Changes how particle updates are spread over threads.
+	 * The previous executor is closed.
+	 * @param mode
+	 */
+	public void setExecutionMode(ExecutionMode mode) {
+		if(mode == executionMode) return;
+		executor.close();
+		executionMode = mode;
+		executor = PSOExecutor.create(mode);
+		splitBatches();
+	}
+	
+	/***
+	 * Lazy greedy placement for the settings' region, with candidates every 
+	 * greedyStride cells or at the candidate sites
+	 * @param settings
+	 * @param data
+	 * @param executor evaluates the candidates' gains
+	 * @return null when there are no candidates in the region
+	 */
+	public static PSOSolution greedySeed(PSOSettings settings, GridData data, PSOExecutor executor) {
+		GreedyOptimizer greedy = settings.sites != null ? 
+				new GreedyOptimizer(data, settings.region, settings.range, settings.sites) : 
+				new GreedyOptimizer(data, settings.region, settings.range, settings.greedyStride);
+		if(greedy.getCandidateCount() == 0) return null;
+		
+		PSOSolution seed = greedy.run(settings.nodes, executor);
+		System.out.println("Greedy seed : " + seed.getFitness() + " from " + greedy.getEvaluations() + " gains");
+		return seed;
+	}
+	
+	/***
+	 * Release the executor's threads, call when the simulation is discarded.
+	 */
+	public void shutdown() {
+		executor.close();
+		if(fitnessFunction instanceof AutoCloseable) {
 			try {
-				t.join();
-			} catch (InterruptedException e) {
+				((AutoCloseable)fitnessFunction).close();
+			} catch(Exception e) {
 				e.printStackTrace();
 			}
 		}
 	}
 	
+	/***
+	 * Move and evaluate particles [start, end)
+	 */
+	private void moveRange(int start, int end) {
+		for(int i = start; i < end; i++) {
+			PSOParticle p = swarm.particles[i];
+			p.step(globalBest);
+			updateFitness(p);
+		}
+	}
+	
+	/***
+	 * Evaluate a particle, using the upper bound to skip it when allowed
+	 */
+	private void updateFitness(PSOParticle p) {
+		if(!upperBoundPruning) {
+			p.updateFitness(fitnessFunction);
+		} else if(!p.updateFitnessPruned(fitnessFunction)) {
+			statistics.addPruned(1);
+		}
+	}
+	
+	/***
+	 * Move particles [start, end) without evaluating them
+	 */
+	private void stepRange(int start, int end) {
+		for(int i = start; i < end; i++) {
+			swarm.particles[i].step(globalBest);
+		}
+	}
 	
-	private PSOSolution findGlobalBest() {
-		float globalBestFitness = particles.getFirst().localBest.fitness;
-		int globalBestIndex = 0;
-		for(int i = 0; i < particles.size(); i++) {
-			if(particles.get(i).localBest.fitness > globalBestFitness) {
-				globalBestIndex = i;
-				globalBestFitness = particles.get(i).localBest.fitness;
+	/***
+	 * Move every particle, then evaluate the swarm with one sweep of 
+	 * the grid per thread.
+	 */
+	private void moveBatch() {
+		executor.forRange(nParticles, stepTask);
+		executor.forRange(batches.size(), batchTask);
+	}
+	
+	/***
+	 * One batch per thread the executor can use, so threads sweep the grid
+	 * side by side. Sequential and distributed evaluation use a single batch,
+	 * the remote workers already split it. Particles keep their current
+	 * solution, so the lists are reused every step.
+	 */
+	private void splitBatches() {
+		int n = distributed || executionMode == ExecutionMode.Sequential ? 
+				1 : Math.max(1, Math.min(nParticles, PSOExecutor.defaultThreads()));
+		batches = new ArrayList<List<PSOSolution>>(n);
+		batchStart = new int[n + 1];
+		batchFitness = new float[n][];
+		unpruned = new ArrayList<List<PSOSolution>>(n);
+		unprunedIndex = new int[n][];
+		for(int b = 0; b < n; b++) {
+			batchStart[b + 1] = (int)((long)(b + 1) * nParticles / n);
+			List<PSOSolution> batch = new ArrayList<PSOSolution>(batchStart[b + 1] - batchStart[b]);
+			for(int i = batchStart[b]; i < batchStart[b + 1]; i++) {
+				batch.add(swarm.particles[i].getCurrent());
 			}
+			batches.add(batch);
+			batchFitness[b] = new float[batch.size()];
+			unpruned.add(new ArrayList<PSOSolution>(batch.size()));
+			unprunedIndex[b] = new int[batch.size()];
 		}
-		return particles.get(globalBestIndex).localBest;
-		
 	}
+	
+	/***
+	 * Evaluate batches [start, end). With pruning, particles the upper
+	 * bound rules out are dropped from the batch first.
+	 */
+	private void updateFitnessBatches(int start, int end) {
+		for(int b = start; b < end; b++) {
+			float[] fitness = batchFitness[b];
+			if(!pruneBatches || !fitnessFunction.supportsUpperBound()) {
+				fitnessFunction.calcFitness(batches.get(b), fitness);
+				for(int i = batchStart[b]; i < batchStart[b + 1]; i++) {
+					swarm.particles[i].updateFitness(fitness[i - batchStart[b]]);
+				}
+				continue;
+			}
+			
+			List<PSOSolution> batch = unpruned.get(b);
+			int[] index = unprunedIndex[b];
+			batch.clear();
+			for(int i = batchStart[b]; i < batchStart[b + 1]; i++) {
+				PSOParticle p = swarm.particles[i];
+				if(p.prune(fitnessFunction)) {
+					statistics.addPruned(1);
+				} else {
+					index[batch.size()] = i;
+					batch.add(p.getCurrent());
+				}
+			}
+			if(batch.isEmpty()) continue;
+			fitnessFunction.calcFitness(batch, fitness);
+			for(int k = 0; k < batch.size(); k++) {
+				swarm.particles[index[k]].updateFitness(fitness[k]);
+			}
+			batch.clear();
+		}
+	}
+
 }
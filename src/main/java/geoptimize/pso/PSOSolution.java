@@ -1,52 +1,163 @@
 package geoptimize.pso;
 
 import java.awt.Rectangle;
-import java.awt.image.BufferedImage;
-import java.awt.image.DataBuffer;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 import java.util.Random;
 
-import geoptimize.GridData;
 import geoptimize.ServiceNode;
 
+/***
+ * A set of node positions and their fitness.
+ *
+ * Positions are stored in primitive arrays, nNodes entries from offset.
+ * Solutions owned by a PSOSwarm are views into the swarm's arrays,
+ * standalone solutions own their arrays (offset 0).
+ *
+ * @author Callan
+ *
+ */
 public class PSOSolution {
-	protected List<ServiceNode> nodes;
+	protected int[] xs;
+	protected int[] ys;
+	protected int offset;
+	protected int nNodes;
+	protected int range;
+
 	protected float fitness;
 	public float getFitness() { return fitness; }
+
+	public int size() { return nNodes; }
+	public int getX(int i) { return xs[offset + i]; }
+	public int getY(int i) { return ys[offset + i]; }
+	public int getRange(int i) { return range; }
+	public int getRange() { return range; }
+
+	public void setPosition(int i, int x, int y) {
+		xs[offset + i] = x;
+		ys[offset + i] = y;
+	}
+
+	/***
+	 * Standalone solution with all nodes at (0, 0)
+	 * @param nodes
+	 * @param range
+	 */
+	public PSOSolution(int nodes, int range) {
+		this(new int[nodes], new int[nodes], 0, nodes, range);
+	}
+
+	/***
+	 * View of nodes [offset, offset + nodes) of the given position arrays
+	 */
+	public PSOSolution(int[] xs, int[] ys, int offset, int nodes, int range) {
+		this.xs = xs;
+		this.ys = ys;
+		this.offset = offset;
+		this.nNodes = nodes;
+		this.range = range;
+	}
+
+	/***
+	 * Copies of the nodes, for display and anything else that
+	 * wants ServiceNode objects. Changing them does not change the solution.
+	 * @return
+	 */
+	public List<ServiceNode> getNodes() {
+		List<ServiceNode> nodes = new ArrayList<ServiceNode>(nNodes);
+		for(int i = 0; i < nNodes; i++) {
+			nodes.add(new ServiceNode(getX(i), getY(i), getRange(i)));
+		}
+		return nodes;
+	}
+
+	/***
+	 * Copy positions, range and fitness of another solution with
+	 * the same number of nodes into this one.
+	 * @param other
+	 */
+	public void copyFrom(PSOSolution other) {
+		System.arraycopy(other.xs, other.offset, xs, offset, nNodes);
+		System.arraycopy(other.ys, other.offset, ys, offset, nNodes);
+		range = other.range;
+		fitness = other.fitness;
+	}
+
+	/***
+	 * 64 bit key for the set of node positions and the range. Nodes are
+	 * sorted first, so the same positions in a different node order give
+	 * the same key. Used to cache whole-solution fitness.
+	 * @return
+	 */
+	public long canonicalHash() {
+		return canonicalHash(new long[nNodes]);
+	}
 	
-	public List<ServiceNode> getNodes() { return nodes; }
+	/***
+	 * canonicalHash without allocating. The first size() entries of packed
+	 * are left holding the sorted positions (x in the high 32 bits, y in
+	 * the low), which is the canonical form the hash is made from.
+	 * @param packed at least size() entries
+	 * @return
+	 */
+	public long canonicalHash(long[] packed) {
+		for(int i = 0; i < nNodes; i++) {
+			packed[i] = ((long)getX(i) << 32) | (getY(i) & 0xFFFFFFFFL);
+		}
+		Arrays.sort(packed, 0, nNodes);
+		
+		long h = mix(range + 0x9E3779B97F4A7C15L);
+		for(int i = 0; i < nNodes; i++) {
+			h = mix(h ^ packed[i]) * 0x9E3779B97F4A7C15L + 1;
+		}
+		return mix(h);
+	}
 	
-	private  PSOSolution() { }
+	//murmur3 finalizer
+	private static long mix(long k) {
+		k ^= k >>> 33;
+		k *= 0xff51afd7ed558ccdL;
+		k ^= k >>> 33;
+		k *= 0xc4ceb9fe1a85ec53L;
+		k ^= k >>> 33;
+		return k;
+	}
 	
 	/***
-	 * Create a random solution for a given number of nodes, all 
+	 * Move every node to a random position in the region.
+	 * @param region
+	 * @param r
+	 */
+	public void randomize(Rectangle region, Random r) {
+		for(int i = 0; i < nNodes; i++) {
+			setPosition(i,
+					region.x + r.nextInt(region.width),
+					region.y + r.nextInt(region.height));
+		}
+	}
+
+	/***
+	 * Create a random solution for a given number of nodes, all
 	 * with the same proprties.
 	 * @param nodes
 	 * @param range
 	 * @return
 	 */
 	public static PSOSolution CreateRandom(int nodes, int range, Rectangle region) {
-		PSOSolution s = new PSOSolution();
-		s.nodes = new ArrayList<ServiceNode>(nodes);
-		Random r = new Random();
-		for(int i = 0; i < nodes; i++) {
-			s.nodes.add(new ServiceNode(
-					region.x + r.nextInt(region.width), 
-					region.y + r.nextInt(region.height), 
-					range));
-		}
+		return CreateRandom(nodes, range, region, new Random());
+	}
+
+	public static PSOSolution CreateRandom(int nodes, int range, Rectangle region, Random r) {
+		PSOSolution s = new PSOSolution(nodes, range);
+		s.randomize(region, r);
 		return s;
 	}
-	
+
 	@Override
 	public Object clone() {
-		PSOSolution s = new PSOSolution();
-		s.nodes = new ArrayList<ServiceNode>(this.nodes.size());
-		for(ServiceNode n : this.nodes) {
-			s.nodes.add((ServiceNode)n.clone());
-		}
-		s.fitness = this.fitness;
+		PSOSolution s = new PSOSolution(nNodes, range);
+		s.copyFrom(this);
 		return s;
 	}
 }
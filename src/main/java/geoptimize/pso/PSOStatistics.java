@@ -0,0 +1,38 @@
+package geoptimize.pso;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/***
+ * Counters collected while a simulation runs.
+ * Safe to update from several worker threads.
+ * 
+ * @author Callan
+ *
+ */
+public class PSOStatistics {
+	
+	private final LongAdder evaluations = new LongAdder();
+	private final LongAdder elapsedNanos = new LongAdder();
+	
+	//evaluations skipped because the upper bound could not beat the local best
+	private final LongAdder pruned = new LongAdder();
+	
+	public long getEvaluations() { return evaluations.sum(); }
+	public long getElapsedNanos() { return elapsedNanos.sum(); }
+	public long getPruned() { return pruned.sum(); }
+	
+	public void addEvaluations(long n) { evaluations.add(n); }
+	public void addElapsedNanos(long nanos) { elapsedNanos.add(nanos); }
+	public void addPruned(long n) { pruned.add(n); }
+	
+	public double getEvaluationsPerSecond() {
+		long nanos = getElapsedNanos();
+		return nanos == 0 ? 0 : getEvaluations() * 1e9 / nanos;
+	}
+	
+	@Override
+	public String toString() {
+		return String.format("evaluations : %d, pruned : %d, time : %.3fs, evaluations/s : %.1f",
+				getEvaluations(), getPruned(), getElapsedNanos() / 1e9, getEvaluationsPerSecond());
+	}
+}
@@ -0,0 +1,221 @@
+package geoptimize.pso;
+
+import java.awt.Rectangle;
+import java.util.Random;
+
+import geoptimize.CandidateSites;
+import geoptimize.helper.MathHelper;
+
+/***
+ * Flat storage for the state of every particle in a swarm.
+ *
+ * Node i of particle p is stored at [p * nNodes + i] of the position,
+ * velocity and local best arrays. PSOParticle and PSOSolution are views
+ * into these arrays, so stepping the swarm and updating bests only copies
+ * primitives and never allocates.
+ *
+ * @author Callan
+ *
+ */
+public class PSOSwarm {
+
+	protected final int nParticles;
+	protected final int nNodes;
+
+	//current positions and velocities
+	protected final int[] x;
+	protected final int[] y;
+	protected final float[] vx;
+	protected final float[] vy;
+
+	//local best positions of each particle
+	protected final int[] lbestX;
+	protected final int[] lbestY;
+
+	//global best positions
+	protected final int[] gbestX;
+	protected final int[] gbestY;
+
+	protected final PSOParticle[] particles;
+	protected final PSOSolution globalBest;
+
+	public int getParticleCount() { return nParticles; }
+	public int getNodeCount() { return nNodes; }
+	public PSOParticle getParticle(int p) { return particles[p]; }
+	public PSOSolution getGlobalBest() { return globalBest; }
+
+	public PSOSwarm(
+			int nParticles,
+			int nNodes,
+			int range,
+			float lbestWeight,
+			float gbestWeight,
+			float inertia,
+			Rectangle region,
+			Random random) {
+
+		this.nParticles = nParticles;
+		this.nNodes = nNodes;
+
+		int n = nParticles * nNodes;
+		x = new int[n];
+		y = new int[n];
+		vx = new float[n];
+		vy = new float[n];
+		lbestX = new int[n];
+		lbestY = new int[n];
+		gbestX = new int[nNodes];
+		gbestY = new int[nNodes];
+
+		globalBest = new PSOSolution(gbestX, gbestY, 0, nNodes, range);
+
+		particles = new PSOParticle[nParticles];
+		for(int p = 0; p < nParticles; p++) {
+			particles[p] = new PSOParticle(
+					this,
+					p,
+					range,
+					lbestWeight,
+					gbestWeight,
+					inertia,
+					region,
+					new Random(random.nextLong()));
+		}
+	}
+
+	/***
+	 * Copies the best local best into the global best.
+	 * Local bests only ever improve, so neither does the global best get worse.
+	 */
+	public void updateGlobalBest() {
+		int best = 0;
+		for(int p = 1; p < nParticles; p++) {
+			if(particles[p].localBest.fitness > particles[best].localBest.fitness) {
+				best = p;
+			}
+		}
+		globalBest.copyFrom(particles[best].localBest);
+	}
+	
+	/***
+	 * Replace the particle with the worst local best by a migrant solution,
+	 * if the migrant is better. Velocities of that particle are kept.
+	 * @param migrant
+	 * @return true if the migrant was accepted
+	 */
+	public boolean replaceWorst(PSOSolution migrant) {
+		int worst = 0;
+		for(int p = 1; p < nParticles; p++) {
+			if(particles[p].localBest.fitness < particles[worst].localBest.fitness) {
+				worst = p;
+			}
+		}
+		if(migrant.fitness <= particles[worst].localBest.fitness) return false;
+		
+		particles[worst].current.copyFrom(migrant);
+		particles[worst].localBest.copyFrom(migrant);
+		if(migrant.fitness > globalBest.fitness) globalBest.copyFrom(migrant);
+		return true;
+	}
+	
+	/***
+	 * Largest side of the bounding box of any node's current positions 
+	 * across all particles. 0 when the swarm has collapsed to one solution.
+	 * @return
+	 */
+	public int getDiameter() {
+		int diameter = 0;
+		for(int i = 0; i < nNodes; i++) {
+			int minX = Integer.MAX_VALUE, maxX = Integer.MIN_VALUE;
+			int minY = Integer.MAX_VALUE, maxY = Integer.MIN_VALUE;
+			for(int k = i; k < x.length; k += nNodes) {
+				minX = Math.min(minX, x[k]);
+				maxX = Math.max(maxX, x[k]);
+				minY = Math.min(minY, y[k]);
+				maxY = Math.max(maxY, y[k]);
+			}
+			diameter = Math.max(diameter, Math.max(maxX - minX, maxY - minY));
+		}
+		return diameter;
+	}
+	
+	/***
+	 * Fastest node velocity in the swarm
+	 * @return
+	 */
+	public float getMaxSpeed() {
+		float max = 0;
+		for(int k = 0; k < vx.length; k++) {
+			max = Math.max(max, vx[k] * vx[k] + vy[k] * vy[k]);
+		}
+		return (float)Math.sqrt(max);
+	}
+	
+	/***
+	 * Start particle p from a known solution (e.g. a greedy placement)
+	 * instead of its random one. Its current and local best positions are
+	 * both set, the fitness is left for the caller to calculate.
+	 * @param p
+	 * @param solution
+	 */
+	public void seed(int p, PSOSolution solution) {
+		particles[p].current.copyFrom(solution);
+		particles[p].localBest.copyFrom(solution);
+	}
+	
+	/***
+	 * Restrict nodes to candidate sites. Every current, local best and 
+	 * global best position moves to its nearest site, and particles snap
+	 * to sites after each step from now on. Fitness values are left for
+	 * the caller to recalculate.
+	 * @param sites
+	 */
+	public void snapTo(CandidateSites sites) {
+		snap(x, y, sites);
+		snap(lbestX, lbestY, sites);
+		snap(gbestX, gbestY, sites);
+		for(PSOParticle p : particles) p.sites = sites;
+	}
+	
+	private static void snap(int[] xs, int[] ys, CandidateSites sites) {
+		for(int k = 0; k < xs.length; k++) {
+			int s = sites.nearest(xs[k], ys[k]);
+			xs[k] = sites.getX(s);
+			ys[k] = sites.getY(s);
+		}
+	}
+	
+	/***
+	 * Move the swarm to a grid with a different resolution.
+	 * Positions and velocities are multiplied by factor (positions land in
+	 * the middle of the finer cells), clamped to the new region, and every
+	 * solution gets the new range. Fitness values are left for the caller
+	 * to recalculate.
+	 * @param factor
+	 * @param region
+	 * @param range
+	 */
+	public void rescale(int factor, Rectangle region, int range) {
+		scale(x, y, factor, region);
+		scale(lbestX, lbestY, factor, region);
+		scale(gbestX, gbestY, factor, region);
+		for(int k = 0; k < vx.length; k++) {
+			vx[k] *= factor;
+			vy[k] *= factor;
+		}
+		
+		for(PSOParticle p : particles) {
+			p.region = region;
+			p.current.range = range;
+			p.localBest.range = range;
+		}
+		globalBest.range = range;
+	}
+	
+	private static void scale(int[] xs, int[] ys, int factor, Rectangle region) {
+		for(int k = 0; k < xs.length; k++) {
+			xs[k] = MathHelper.clamp(region.x, region.x + region.width, xs[k] * factor + factor / 2);
+			ys[k] = MathHelper.clamp(region.y, region.y + region.height, ys[k] * factor + factor / 2);
+		}
+	}
+}
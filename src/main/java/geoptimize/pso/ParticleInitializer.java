@@ -0,0 +1,144 @@
+package geoptimize.pso;
+
+import java.awt.Rectangle;
+import java.util.Arrays;
+import java.util.Random;
+
+import geoptimize.GridData;
+import geoptimize.helper.MathHelper;
+
+/***
+ * Starting positions for a swarm's nodes.
+ * 
+ * Density sampling builds a cumulative sum over the populated cells of the
+ * region once, then each position is a binary search for a uniform random
+ * value, so nodes start where people are rather than over empty land or
+ * sea. Uniform is stratified: the region is cut into a lattice with a cell
+ * per node of the swarm and each node is placed randomly in its own cell.
+ * 
+ * @author Callan
+ *
+ */
+public class ParticleInitializer {
+	
+	protected final Distribution distribution;
+	protected final Rectangle region;
+	
+	//populated cells of the region (row-major region index) and the
+	//running population total up to and including each one
+	protected int[] cells;
+	protected double[] cumulative;
+	
+	public Distribution getDistribution() { return distribution; }
+	
+	public ParticleInitializer(Distribution distribution, GridData grid, Rectangle region) {
+		this.distribution = distribution;
+		this.region = new Rectangle(region);
+		if(distribution == Distribution.Density) buildTable(grid);
+	}
+	
+	private void buildTable(GridData grid) {
+		int count = 0;
+		for(int y = region.y; y < region.y + region.height; y++) {
+			for(int x = region.x; x < region.x + region.width; x++) {
+				if(grid.get(x, y) > 0) count++;
+			}
+		}
+		
+		cells = new int[count];
+		cumulative = new double[count];
+		double total = 0;
+		int i = 0;
+		for(int y = region.y; y < region.y + region.height; y++) {
+			for(int x = region.x; x < region.x + region.width; x++) {
+				float value = grid.get(x, y);
+				if(value <= 0) continue;
+				total += value;
+				cells[i] = (y - region.y) * region.width + (x - region.x);
+				cumulative[i] = total;
+				i++;
+			}
+		}
+	}
+	
+	/***
+	 * Set the starting position of every node of the swarm. Local bests
+	 * start at the same positions.
+	 * @param swarm
+	 * @param random
+	 */
+	public void initialize(PSOSwarm swarm, Random random) {
+		int n = swarm.x.length;
+		
+		//lattice for the stratified layout, about square cells
+		int columns = Math.max(1, (int)Math.round(Math.sqrt(n * (double)region.width / Math.max(1, region.height))));
+		int rows = (n + columns - 1) / columns;
+		
+		//shuffled so a particle's nodes are spread rather than in one band
+		int[] strata = new int[n];
+		for(int k = 0; k < n; k++) strata[k] = k;
+		for(int k = n - 1; k > 0; k--) {
+			int j = random.nextInt(k + 1);
+			int t = strata[k];
+			strata[k] = strata[j];
+			strata[j] = t;
+		}
+		
+		for(int k = 0; k < n; k++) {
+			switch(distribution) {
+			case Uniform: {
+				int column = strata[k] % columns;
+				int row = strata[k] / columns;
+				double x0 = region.width * (double)column / columns;
+				double y0 = region.height * (double)row / rows;
+				swarm.x[k] = region.x + (int)(x0 + random.nextDouble() * region.width / columns);
+				swarm.y[k] = region.y + (int)(y0 + random.nextDouble() * region.height / rows);
+				break;
+			}
+			case Radial: {
+				double radius = Math.min(region.width, region.height) / 2.0 * Math.sqrt(random.nextDouble());
+				double angle = random.nextDouble() * 2 * Math.PI;
+				swarm.x[k] = (int)(region.getCenterX() + radius * Math.cos(angle));
+				swarm.y[k] = (int)(region.getCenterY() + radius * Math.sin(angle));
+				break;
+			}
+			case Density: 
+				if(cells.length > 0) {
+					int cell = sample(random);
+					swarm.x[k] = region.x + cell % region.width;
+					swarm.y[k] = region.y + cell / region.width;
+				} else {
+					//nothing populated, uniform random instead
+					placeRandom(swarm, k, random);
+				}
+				break;
+			case Random:
+			default:
+				placeRandom(swarm, k, random);
+				break;
+			}
+			swarm.x[k] = MathHelper.clamp(region.x, region.x + region.width - 1, swarm.x[k]);
+			swarm.y[k] = MathHelper.clamp(region.y, region.y + region.height - 1, swarm.y[k]);
+		}
+		
+		System.arraycopy(swarm.x, 0, swarm.lbestX, 0, n);
+		System.arraycopy(swarm.y, 0, swarm.lbestY, 0, n);
+	}
+	
+	private void placeRandom(PSOSwarm swarm, int k, Random random) {
+		swarm.x[k] = region.x + random.nextInt(region.width);
+		swarm.y[k] = region.y + random.nextInt(region.height);
+	}
+	
+	/***
+	 * Region cell chosen with probability proportional to its population
+	 */
+	protected int sample(Random random) {
+		double target = random.nextDouble() * cumulative[cumulative.length - 1];
+		int i = Arrays.binarySearch(cumulative, target);
+		
+		//first entry with cumulative > target
+		i = i >= 0 ? i + 1 : -i - 1;
+		return cells[Math.min(i, cells.length - 1)];
+	}
+}
@@ -0,0 +1,14 @@
+package geoptimize.pso.execution;
+
+/***
+ * How a PSOSimulation spreads particle updates over threads.
+ * 
+ * @author Callan
+ *
+ */
+public enum ExecutionMode {
+	Sequential,
+	WorkerPool,
+	ForkJoin,
+	VirtualThreads
+}
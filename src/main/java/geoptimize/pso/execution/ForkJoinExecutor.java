@@ -0,0 +1,64 @@
+package geoptimize.pso.execution;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/***
+ * Splits the range in half until chunks are small enough, and lets the
+ * common fork-join pool balance them by work stealing.
+ * 
+ * @author Callan
+ *
+ */
+public class ForkJoinExecutor extends PSOExecutor {
+	
+	private final ForkJoinPool pool;
+	private final int grain;
+	
+	public ForkJoinExecutor() {
+		this(ForkJoinPool.commonPool(), 1);
+	}
+	
+	/***
+	 * @param pool
+	 * @param grain largest range that is run without splitting
+	 */
+	public ForkJoinExecutor(ForkJoinPool pool, int grain) {
+		this.pool = pool;
+		this.grain = Math.max(grain, 1);
+	}
+
+	@Override
+	public void forRange(int n, RangeTask task) {
+		if(n <= 0) return;
+		pool.invoke(new RangeAction(task, 0, n, Math.max(grain, n / (pool.getParallelism() * 4))));
+	}
+	
+	private static class RangeAction extends RecursiveAction {
+		private static final long serialVersionUID = 1L;
+		
+		final RangeTask task;
+		final int start;
+		final int end;
+		final int grain;
+		
+		RangeAction(RangeTask task, int start, int end, int grain) {
+			this.task = task;
+			this.start = start;
+			this.end = end;
+			this.grain = grain;
+		}
+		
+		@Override
+		protected void compute() {
+			if(end - start <= grain) {
+				task.run(start, end);
+			} else {
+				int mid = (start + end) >>> 1;
+				invokeAll(
+						new RangeAction(task, start, mid, grain),
+						new RangeAction(task, mid, end, grain));
+			}
+		}
+	}
+}
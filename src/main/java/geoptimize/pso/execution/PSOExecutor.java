@@ -0,0 +1,57 @@
+package geoptimize.pso.execution;
+
+/***
+ * Runs a task over a range of particle indices and only returns once
+ * every index has been processed, so the caller can use the results 
+ * straight away (e.g. to find the global best).
+ * 
+ * Executors are created once per simulation and reused every iteration, 
+ * so no threads are started per step. Call close() when the simulation
+ * is discarded.
+ * 
+ * @author Callan
+ *
+ */
+public abstract class PSOExecutor implements AutoCloseable {
+	
+	/***
+	 * Work on indices [start, end)
+	 */
+	public interface RangeTask {
+		void run(int start, int end);
+	}
+	
+	/***
+	 * Run task over [0, n). Blocks until the whole range is done.
+	 * Exceptions thrown by the task are rethrown here.
+	 * @param n
+	 * @param task
+	 */
+	public abstract void forRange(int n, RangeTask task);
+	
+	@Override
+	public void close() { }
+	
+	public static int defaultThreads() {
+		return Runtime.getRuntime().availableProcessors();
+	}
+	
+	public static PSOExecutor create(ExecutionMode mode) {
+		switch(mode) {
+		case Sequential: return new SequentialExecutor();
+		case WorkerPool: return new WorkerPoolExecutor(defaultThreads());
+		case ForkJoin: return new ForkJoinExecutor();
+		case VirtualThreads: 
+			if(VirtualThreadExecutor.isSupported()) return new VirtualThreadExecutor();
+			System.out.println("Virtual threads need Java 21+, using WorkerPool");
+			return new WorkerPoolExecutor(defaultThreads());
+		default: throw new IllegalArgumentException("Unsupported execution mode : " + mode);
+		}
+	}
+	
+	protected static RuntimeException rethrow(Throwable t) {
+		if(t instanceof RuntimeException) return (RuntimeException)t;
+		if(t instanceof Error) throw (Error)t;
+		return new RuntimeException(t);
+	}
+}
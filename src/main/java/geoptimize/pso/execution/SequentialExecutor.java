@@ -0,0 +1,15 @@
+package geoptimize.pso.execution;
+
+/***
+ * Runs everything on the calling thread.
+ * 
+ * @author Callan
+ *
+ */
+public class SequentialExecutor extends PSOExecutor {
+
+	@Override
+	public void forRange(int n, RangeTask task) {
+		if(n > 0) task.run(0, n);
+	}
+}
@@ -0,0 +1,69 @@
+package geoptimize.pso.execution;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/***
+ * One virtual thread per particle. Needs Java 21+, the executor is looked
+ * up by reflection so the project still builds for Java 8.
+ * 
+ * @author Callan
+ *
+ */
+public class VirtualThreadExecutor extends PSOExecutor {
+	
+	private final ExecutorService executor;
+	
+	public static boolean isSupported() {
+		try {
+			Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+			return true;
+		} catch(NoSuchMethodException e) {
+			return false;
+		}
+	}
+	
+	public VirtualThreadExecutor() {
+		try {
+			executor = (ExecutorService)Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+		} catch(Exception e) {
+			throw new UnsupportedOperationException("Virtual threads are not available", e);
+		}
+	}
+
+	@Override
+	public void forRange(int n, RangeTask task) {
+		List<Future<?>> futures = new ArrayList<Future<?>>(n);
+		for(int i = 0; i < n; i++) {
+			final int index = i;
+			futures.add(executor.submit(() -> task.run(index, index + 1)));
+		}
+		
+		Throwable failure = null;
+		boolean interrupted = false;
+		for(Future<?> f : futures) {
+			while(true) {
+				try {
+					f.get();
+					break;
+				} catch(InterruptedException e) {
+					interrupted = true;
+				} catch(ExecutionException e) {
+					if(failure == null) failure = e.getCause();
+					break;
+				}
+			}
+		}
+		if(interrupted) Thread.currentThread().interrupt();
+		if(failure != null) throw rethrow(failure);
+	}
+	
+	@Override
+	public void close() {
+		executor.shutdown();
+	}
+}
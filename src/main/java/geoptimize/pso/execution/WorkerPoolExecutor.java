@@ -0,0 +1,166 @@
+package geoptimize.pso.execution;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+/***
+ * Fixed set of worker threads that live as long as the executor.
+ * 
+ * Each call splits the range into chunks that the workers (and the
+ * calling thread) claim from a shared counter, then waits for every 
+ * worker to finish. Nothing is allocated per call.
+ * 
+ * One range runs at a time, other callers wait their turn. A forRange
+ * from inside a running task (on a worker or the calling thread) would 
+ * wait on itself, so it runs the whole range on that thread instead.
+ * 
+ * @author Callan
+ *
+ */
+public class WorkerPoolExecutor extends PSOExecutor {
+	
+	//a few chunks per thread so uneven fitness costs still balance
+	private static final int CHUNKS_PER_THREAD = 4;
+	
+	private final Thread[] workers;
+	private final Object lock = new Object();
+	private final AtomicInteger nextChunk = new AtomicInteger();
+	
+	//current job, guarded by lock
+	private RangeTask task;
+	private int n;
+	private int chunks;
+	private long generation;
+	private int pending;
+	private Throwable failure;
+	private boolean closed;
+	
+	//thread inside forRange
+	private volatile Thread caller;
+	
+	/***
+	 * @param threads total threads to use, including the calling thread
+	 */
+	public WorkerPoolExecutor(int threads) {
+		workers = new Thread[Math.max(threads - 1, 0)];
+		for(int i = 0; i < workers.length; i++) {
+			workers[i] = new Thread(this::workerLoop, "PSOWorker-" + i);
+			workers[i].setDaemon(true);
+			workers[i].start();
+		}
+	}
+	
+	@Override
+	public void forRange(int n, RangeTask task) {
+		if(n <= 0) return;
+		if(isPoolThread()) {
+			//nested, the pool is busy with the outer range
+			task.run(0, n);
+			return;
+		}
+		
+		synchronized(this) {
+			caller = Thread.currentThread();
+			try {
+				runRange(n, task);
+			} finally {
+				caller = null;
+			}
+		}
+	}
+	
+	private boolean isPoolThread() {
+		Thread t = Thread.currentThread();
+		if(t == caller) return true;
+		for(Thread w : workers) {
+			if(w == t) return true;
+		}
+		return false;
+	}
+	
+	private void runRange(int n, RangeTask task) {
+		synchronized(lock) {
+			if(closed) throw new IllegalStateException("Executor is closed");
+			this.task = task;
+			this.n = n;
+			this.chunks = Math.min(n, (workers.length + 1) * CHUNKS_PER_THREAD);
+			this.failure = null;
+			this.pending = workers.length;
+			nextChunk.set(0);
+			generation++;
+			lock.notifyAll();
+		}
+		
+		runChunks();
+		
+		Throwable t;
+		synchronized(lock) {
+			boolean interrupted = false;
+			while(pending > 0) {
+				try {
+					lock.wait();
+				} catch(InterruptedException e) {
+					//must still wait, the workers are using the caller's data
+					interrupted = true;
+				}
+			}
+			if(interrupted) Thread.currentThread().interrupt();
+			t = failure;
+			this.task = null;
+		}
+		if(t != null) throw rethrow(t);
+	}
+	
+	private void runChunks() {
+		RangeTask task;
+		int n, chunks;
+		synchronized(lock) {
+			task = this.task;
+			n = this.n;
+			chunks = this.chunks;
+		}
+		
+		int c;
+		while((c = nextChunk.getAndIncrement()) < chunks) {
+			int start = (int)((long)c * n / chunks);
+			int end = (int)((long)(c + 1) * n / chunks);
+			try {
+				task.run(start, end);
+			} catch(Throwable t) {
+				synchronized(lock) {
+					if(failure == null) failure = t;
+				}
+			}
+		}
+	}
+	
+	private void workerLoop() {
+		long seen = 0;
+		while(true) {
+			synchronized(lock) {
+				while(generation == seen && !closed) {
+					try {
+						lock.wait();
+					} catch(InterruptedException e) {
+						return;
+					}
+				}
+				if(closed) return;
+				seen = generation;
+			}
+			
+			runChunks();
+			
+			synchronized(lock) {
+				if(--pending == 0) lock.notifyAll();
+			}
+		}
+	}
+	
+	@Override
+	public void close() {
+		synchronized(lock) {
+			closed = true;
+			lock.notifyAll();
+		}
+	}
+}
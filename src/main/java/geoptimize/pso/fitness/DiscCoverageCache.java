@@ -0,0 +1,154 @@
+package geoptimize.pso.fitness;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.LongAdder;
+
+/***
+ * Bounded cache of the population covered by a single disc, keyed by
+ * (x, y, range). Converged swarms keep putting nodes on the same cells,
+ * so per-node sums (upper bounds, greedy gains, displays) are mostly
+ * lookups.
+ * 
+ * Keys are packed into a long (24 bits each for x and y, 16 for range)
+ * and stored in primitive arrays, so lookups do not allocate. The table
+ * is split into segments with their own lock, each a 4-way set associative
+ * table. A full set evicts its least recently used entry.
+ * 
+ * @author Callan
+ *
+ */
+public class DiscCoverageCache {
+	
+	/***
+	 * Where missing values come from
+	 */
+	public interface DiscSum {
+		double sum(int x, int y, int range);
+	}
+	
+	private static final int WAYS = 4;
+	private static final int SEGMENTS = 16;
+	
+	private final DiscSum source;
+	private final Segment[] segments = new Segment[SEGMENTS];
+	private final int capacity;
+	
+	private final LongAdder hits = new LongAdder();
+	private final LongAdder misses = new LongAdder();
+	
+	public DiscCoverageCache(int capacity, DiscSum source) {
+		this.source = source;
+		
+		//sets per segment, rounded up to a power of two
+		int sets = Math.max(1, (capacity + SEGMENTS * WAYS - 1) / (SEGMENTS * WAYS));
+		sets = Integer.highestOneBit(sets - 1) << 1;
+		if(sets == 0) sets = 1;
+		
+		for(int i = 0; i < SEGMENTS; i++) segments[i] = new Segment(sets);
+		this.capacity = sets * WAYS * SEGMENTS;
+	}
+	
+	/***
+	 * Population covered by the disc, from the cache if present
+	 */
+	public double get(int x, int y, int range) {
+		long key = key(x, y, range);
+		long hash = mix(key);
+		Segment segment = segments[(int)(hash >>> 60) & (SEGMENTS - 1)];
+		
+		synchronized(segment) {
+			int slot = segment.find(key, hash);
+			if(slot >= 0) {
+				hits.increment();
+				segment.stamps[slot] = ++segment.clock;
+				return segment.values[slot];
+			}
+		}
+		
+		//computed outside the lock, two threads may both compute the same disc
+		misses.increment();
+		double value = source.sum(x, y, range);
+		
+		synchronized(segment) {
+			segment.put(key, hash, value);
+		}
+		return value;
+	}
+	
+	public void clear() {
+		for(Segment segment : segments) {
+			synchronized(segment) {
+				Arrays.fill(segment.stamps, 0);
+			}
+		}
+	}
+	
+	public int getCapacity() { return capacity; }
+	public long getHits() { return hits.sum(); }
+	public long getMisses() { return misses.sum(); }
+	
+	public double getHitRate() {
+		long h = getHits();
+		long total = h + getMisses();
+		return total == 0 ? 0 : (double)h / total;
+	}
+	
+	@Override
+	public String toString() {
+		return String.format("disc cache : %d hits, %d misses, %.1f%% hit rate",
+				getHits(), getMisses(), getHitRate() * 100);
+	}
+	
+	private static long key(int x, int y, int range) {
+		return ((long)(x & 0xFFFFFF) << 40) | ((long)(y & 0xFFFFFF) << 16) | (range & 0xFFFF);
+	}
+	
+	//murmur3 finalizer, spreads neighbouring cells over the table
+	private static long mix(long k) {
+		k ^= k >>> 33;
+		k *= 0xff51afd7ed558ccdL;
+		k ^= k >>> 33;
+		k *= 0xc4ceb9fe1a85ec53L;
+		k ^= k >>> 33;
+		return k;
+	}
+	
+	private static class Segment {
+		final long[] keys;
+		final double[] values;
+		//last use of each slot, 0 when empty
+		final long[] stamps;
+		final int setMask;
+		long clock;
+		
+		Segment(int sets) {
+			keys = new long[sets * WAYS];
+			values = new double[sets * WAYS];
+			stamps = new long[sets * WAYS];
+			setMask = sets - 1;
+		}
+		
+		int find(long key, long hash) {
+			int first = ((int)hash & setMask) * WAYS;
+			for(int i = first; i < first + WAYS; i++) {
+				if(stamps[i] != 0 && keys[i] == key) return i;
+			}
+			return -1;
+		}
+		
+		void put(long key, long hash, double value) {
+			int first = ((int)hash & setMask) * WAYS;
+			int victim = first;
+			for(int i = first; i < first + WAYS; i++) {
+				if(stamps[i] != 0 && keys[i] == key) {
+					victim = i;
+					break;
+				}
+				if(stamps[i] < stamps[victim]) victim = i;
+			}
+			keys[victim] = key;
+			values[victim] = value;
+			stamps[victim] = ++clock;
+		}
+	}
+}
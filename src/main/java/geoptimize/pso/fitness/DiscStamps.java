@@ -0,0 +1,57 @@
+package geoptimize.pso.fitness;
+
+/***
+ * Shape of a node's disc for each range, as the half width of each row.
+ * Row dy of a disc centred on (x, y) covers [x - w[dy], x + w[dy]] on rows
+ * y - dy and y + dy, which is exactly the cells with dx*dx + dy*dy < range*range.
+ * 
+ * Tables are built once per distinct range and shared between threads
+ * and fitness functions.
+ * 
+ * @author Callan
+ *
+ */
+public final class DiscStamps {
+	
+	private static final int[] NO_WIDTHS = new int[0];
+	
+	//halfWidths[range][dy] is the largest dx with dx*dx + dy*dy < range*range
+	private static volatile int[][] halfWidths = new int[0][];
+	
+	private DiscStamps() { }
+	
+	/***
+	 * Half width of each row of a disc with the given range, 
+	 * range entries long (empty for range <= 0). Do not modify.
+	 * @param range
+	 * @return
+	 */
+	public static int[] halfWidths(int range) {
+		if(range <= 0) return NO_WIDTHS;
+		
+		int[][] table = halfWidths;
+		if(range < table.length && table[range] != null) return table[range];
+
+		synchronized(DiscStamps.class) {
+			table = halfWidths;
+			if(range >= table.length) {
+				int[][] grown = new int[range + 1][];
+				System.arraycopy(table, 0, grown, 0, table.length);
+				table = grown;
+			}
+			if(table[range] == null) {
+				int[] widths = new int[range];
+				for(int dy = 0; dy < widths.length; dy++) {
+					int limit = range * range - dy * dy - 1;
+					int dx = (int)Math.sqrt(limit);
+					while(dx * dx > limit) dx--;
+					while((dx + 1) * (dx + 1) <= limit) dx++;
+					widths[dy] = dx;
+				}
+				table[range] = widths;
+			}
+			halfWidths = table;
+			return table[range];
+		}
+	}
+}
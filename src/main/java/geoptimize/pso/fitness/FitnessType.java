@@ -4,5 +4,9 @@ public enum FitnessType {
 	Simple,
 	BinaryRange,
 	BinaryRangeFast,
-	BinaryRangeOpenCL
+	BinaryRangeOpenCL,
+	BinaryRangePrefixSum,
+	BinaryRangeTiled,
+	BinaryRangeBitset,
+	BinaryRangeQuadtree
 }
@@ -1,13 +1,16 @@
 package geoptimize.pso.fitness;
 
 import java.awt.Rectangle;
+import java.util.List;
 
 import geoptimize.GridData;
-import geoptimize.ServiceNode;
 import geoptimize.pso.PSOSolution;
 
 
 public class PSOFitnessBinaryRange extends PSOFitnessFunction {
+	
+	//rows of the region swept together in a batch, sized to stay in L2
+	protected static final int BLOCK_BYTES = 256 * 1024;
 
 	public PSOFitnessBinaryRange(GridData grid, Rectangle region) {
 		super(grid, region);
@@ -16,14 +19,20 @@ public class PSOFitnessBinaryRange extends PSOFitnessFunction {
 	/***
 	 * Steps through entire population and and stores the a grid fitness
 	 * in an array. This is more extendable than quickfitness.
+	 * If the grid has a run index, only the populated cells are visited.
 	 * @param grid
 	 * @param region
 	 * @return
 	 */
 	@Override
 	public float calcFitness(PSOSolution solution) {
+		
+		if(grid.hasRunIndex()) return calcFitnessRuns(solution);
 
-		float[] inrange = new float[region.width * region.height];
+		//covered cells are marked with this evaluation's generation
+		ScratchArena arena = ScratchArena.get();
+		int generation = arena.beginMarks(region.width * region.height);
+		int[] inrange = arena.getMarks();
 		
 		for(int y = (int)region.getMinY(); y < region.getMaxY(); y++) {
 			for(int x = (int)region.getMinX(); x < region.getMaxX(); x++) {
@@ -31,15 +40,15 @@ public class PSOFitnessBinaryRange extends PSOFitnessFunction {
 				//fast return, most cells have population of 0
 				if(grid.get(x, y) == 0) continue;
 					
-				for(ServiceNode n : solution.getNodes()) {
-					int xdist = x - n.getPosition().x;
-					int ydist = y - n.getPosition().y;
+				for(int i = 0; i < solution.size(); i++) {
+					int xdist = x - solution.getX(i);
+					int ydist = y - solution.getY(i);
 					int distsqr = xdist*xdist+ydist*ydist;
 					
-					if(distsqr < n.getRange() * n.getRange()) {
+					if(distsqr < solution.getRange(i) * solution.getRange(i)) {
 						int rx = x - region.x;
 						int ry = y - region.y;
-						inrange[ry*region.width + rx] = grid.get(x, y);
+						inrange[ry*region.width + rx] = generation;
 					}
 					
 				}
@@ -49,10 +58,132 @@ public class PSOFitnessBinaryRange extends PSOFitnessFunction {
 		float fitness = 0;
 		for(int ry = 0; ry < region.height; ry++) {
 			for(int rx = 0; rx < region.width; rx++) {
-				fitness += inrange[ry*region.width+rx];
+				if(inrange[ry*region.width+rx] == generation) fitness += grid.get(region.x + rx, region.y + ry);
 			}
 		}
 		return fitness;
 	}
-
+	
+	/***
+	 * calcFitness using the grid's run index, only populated cells
+	 * are visited. Cells are summed in the same row-major order, so the
+	 * result is identical.
+	 * @param solution
+	 * @return
+	 */
+	protected float calcFitnessRuns(PSOSolution solution) {
+		int maxX = region.x + region.width;
+		
+		float fitness = 0;
+		for(int y = region.y; y < region.y + region.height; y++) {
+			for(int i = grid.firstRun(y, region.x); i < grid.rowEnd(y) && grid.runStart(i) < maxX; i++) {
+				int xa = Math.max(grid.runStart(i), region.x);
+				int xb = Math.min(grid.runEnd(i), maxX);
+				fitness = sumCovered(solution, y, xa, xb, fitness);
+			}
+		}
+		return fitness;
+	}
+	
+	/***
+	 * Adds the covered cells of row y between [xa, xb) to sum
+	 */
+	private float sumCovered(PSOSolution solution, int y, int xa, int xb, float sum) {
+		for(int x = xa; x < xb; x++) {
+			
+			float value = grid.get(x, y);
+			if(value == 0) continue;
+			
+			for(int j = 0; j < solution.size(); j++) {
+				int xdist = x - solution.getX(j);
+				int ydist = y - solution.getY(j);
+				
+				if(xdist*xdist + ydist*ydist < solution.getRange(j) * solution.getRange(j)) {
+					sum += value;
+					break;
+				}
+			}
+		}
+		return sum;
+	}
+	
+	@Override
+	public boolean supportsBatch() {
+		return true;
+	}
+	
+	/***
+	 * A disc sum only visits the disc's cells, far fewer than an exact 
+	 * evaluation sweeping the region
+	 */
+	@Override
+	public boolean supportsUpperBound() {
+		return true;
+	}
+	
+	/***
+	 * Same result as calcFitness for each solution, but the region is only
+	 * streamed through the cache once per swarm. The grid is walked in 
+	 * blocks of rows and every solution is tested against the block while
+	 * it is still cached. Cells are still summed in row-major order,
+	 * so the results are identical to calcFitness.
+	 */
+	@Override
+	public void calcFitness(List<PSOSolution> solutions, float[] fitness) {
+		int n = solutions.size();
+		
+		//bounding box of each solution's discs, clipped to the region
+		ScratchArena arena = ScratchArena.get();
+		int[] minX = arena.ints(0, n);
+		int[] maxX = arena.ints(1, n);
+		int[] minY = arena.ints(2, n);
+		int[] maxY = arena.ints(3, n);
+		
+		for(int i = 0; i < n; i++) {
+			fitness[i] = 0;
+			minX[i] = Integer.MAX_VALUE;
+			maxX[i] = Integer.MIN_VALUE;
+			minY[i] = Integer.MAX_VALUE;
+			maxY[i] = Integer.MIN_VALUE;
+			
+			PSOSolution solution = solutions.get(i);
+			for(int j = 0; j < solution.size(); j++) {
+				int r = solution.getRange(j);
+				minX[i] = Math.min(minX[i], solution.getX(j) - r);
+				maxX[i] = Math.max(maxX[i], solution.getX(j) + r);
+				minY[i] = Math.min(minY[i], solution.getY(j) - r);
+				maxY[i] = Math.max(maxY[i], solution.getY(j) + r);
+			}
+			
+			minX[i] = Math.max(minX[i], region.x);
+			maxX[i] = Math.min(maxX[i], region.x + region.width - 1);
+			minY[i] = Math.max(minY[i], region.y);
+			maxY[i] = Math.min(maxY[i], region.y + region.height - 1);
+		}
+		
+		int blockRows = Math.max(1, BLOCK_BYTES / (4 * Math.max(1, region.width)));
+		
+		for(int y0 = region.y; y0 < region.y + region.height; y0 += blockRows) {
+			int y1 = Math.min(y0 + blockRows, region.y + region.height);
+			
+			for(int i = 0; i < n; i++) {
+				PSOSolution solution = solutions.get(i);
+				int ya = Math.max(y0, minY[i]);
+				int yb = Math.min(y1 - 1, maxY[i]);
+				
+				float sum = fitness[i];
+				for(int y = ya; y <= yb; y++) {
+					if(grid.hasRunIndex()) {
+						int xEnd = maxX[i] + 1;
+						for(int r = grid.firstRun(y, minX[i]); r < grid.rowEnd(y) && grid.runStart(r) < xEnd; r++) {
+							sum = sumCovered(solution, y, Math.max(grid.runStart(r), minX[i]), Math.min(grid.runEnd(r), xEnd), sum);
+						}
+					} else {
+						sum = sumCovered(solution, y, minX[i], maxX[i] + 1, sum);
+					}
+				}
+				fitness[i] = sum;
+			}
+		}
+	}
 }
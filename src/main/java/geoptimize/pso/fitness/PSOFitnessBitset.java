@@ -0,0 +1,99 @@
+package geoptimize.pso.fitness;
+
+import java.awt.Rectangle;
+
+import geoptimize.GridData;
+import geoptimize.pso.PSOSolution;
+
+/***
+ * Same fitness as PSOFitnessBinaryRange, with coverage kept as one bit 
+ * per region cell instead of a float.
+ * 
+ * Each row of a node's disc (from DiscStamps) is a span of cells, OR-ed
+ * into the bitset as whole 64 bit words with masks at the two ends.
+ * The population is then summed over the set bits only, in row-major
+ * order like PSOFitnessBinaryRange, so results are identical.
+ * 
+ * The bitset comes from the thread's ScratchArena and is cleared while
+ * it is summed, so it is all zero between evaluations and nothing is
+ * allocated.
+ * 
+ * @author Callan
+ *
+ */
+public class PSOFitnessBitset extends PSOFitnessFunction {
+	
+	//64 bit words per region row
+	protected final int wordsPerRow;
+
+	public PSOFitnessBitset(GridData grid, Rectangle region) {
+		super(grid, region);
+		wordsPerRow = (region.width + 63) >>> 6;
+	}
+	
+	@Override
+	public float calcFitness(PSOSolution solution) {
+		long[] bits = ScratchArena.get().longs(0, region.height * wordsPerRow);
+		
+		//rows and words that may have bits set
+		int minRow = Integer.MAX_VALUE, maxRow = Integer.MIN_VALUE;
+		int minWord = Integer.MAX_VALUE, maxWord = Integer.MIN_VALUE;
+		
+		for(int i = 0; i < solution.size(); i++) {
+			int[] widths = DiscStamps.halfWidths(solution.getRange(i));
+			int cx = solution.getX(i) - region.x;
+			int cy = solution.getY(i) - region.y;
+			
+			int ry0 = Math.max(cy - widths.length + 1, 0);
+			int ry1 = Math.min(cy + widths.length - 1, region.height - 1);
+			for(int ry = ry0; ry <= ry1; ry++) {
+				int hw = widths[Math.abs(ry - cy)];
+				int a = Math.max(cx - hw, 0);
+				int b = Math.min(cx + hw, region.width - 1);
+				if(a > b) continue;
+				
+				stamp(bits, ry * wordsPerRow, a, b);
+				minRow = Math.min(minRow, ry);
+				maxRow = Math.max(maxRow, ry);
+				minWord = Math.min(minWord, a >>> 6);
+				maxWord = Math.max(maxWord, b >>> 6);
+			}
+		}
+		
+		float fitness = 0;
+		for(int ry = minRow; ry <= maxRow; ry++) {
+			int row = ry * wordsPerRow;
+			for(int k = minWord; k <= maxWord; k++) {
+				long word = bits[row + k];
+				if(word == 0) continue;
+				bits[row + k] = 0;
+				
+				int x = region.x + (k << 6);
+				int y = region.y + ry;
+				while(word != 0) {
+					fitness += grid.get(x + Long.numberOfTrailingZeros(word), y);
+					word &= word - 1;
+				}
+			}
+		}
+		return fitness;
+	}
+	
+	/***
+	 * Set bits [a, b] of the row starting at word row
+	 */
+	private static void stamp(long[] bits, int row, int a, int b) {
+		int wa = row + (a >>> 6);
+		int wb = row + (b >>> 6);
+		long first = -1L << (a & 63);
+		long last = -1L >>> (63 - (b & 63));
+		
+		if(wa == wb) {
+			bits[wa] |= first & last;
+			return;
+		}
+		bits[wa] |= first;
+		for(int w = wa + 1; w < wb; w++) bits[w] = -1L;
+		bits[wb] |= last;
+	}
+}
@@ -0,0 +1,331 @@
+package geoptimize.pso.fitness;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.LongAdder;
+
+import geoptimize.pso.PSOSolution;
+
+/***
+ * Remembers the fitness of recently evaluated solutions in front of 
+ * another fitness function. Converged swarms keep evaluating the same
+ * node positions, often in a different node order, so solutions are keyed
+ * by PSOSolution.canonicalHash and its sorted positions.
+ * 
+ * Stored like DiscCoverageCache: segments with their own lock, each a
+ * 4-way set associative table of primitives that evicts its least recently
+ * used entry, so a lookup does not allocate. Entries keep the sorted 
+ * positions and the range, and a hit has to match them, not just the hash.
+ * 
+ * A solution being evaluated holds a pending entry. Other threads asking
+ * for it wait for that result rather than computing it again.
+ * 
+ * @author Callan
+ *
+ */
+public class PSOFitnessCached extends PSOFitnessFunction implements AutoCloseable {
+	
+	private static final int WAYS = 4;
+	private static final int SEGMENTS = 16;
+	
+	//arena slot for the sorted positions, kept clear of the ones fitness functions use
+	private static final int PACKED_SLOT = ScratchArena.SLOTS - 1;
+	
+	protected final PSOFitnessFunction function;
+	protected final int capacity;
+	
+	private final Segment[] segments = new Segment[SEGMENTS];
+	private final ThreadLocal<Batch> batches = ThreadLocal.withInitial(Batch::new);
+	
+	private final LongAdder hits = new LongAdder();
+	private final LongAdder misses = new LongAdder();
+	
+	public PSOFitnessFunction getFunction() { return function; }
+	public int getCapacity() { return capacity; }
+	public long getHits() { return hits.sum(); }
+	public long getMisses() { return misses.sum(); }
+	
+	/***
+	 * @param function
+	 * @param capacity rounded up to fill whole sets
+	 */
+	public PSOFitnessCached(PSOFitnessFunction function, int capacity) {
+		super(function.grid, function.region);
+		this.function = function;
+		
+		//sets per segment, rounded up to a power of two
+		int sets = Math.max(1, (capacity + SEGMENTS * WAYS - 1) / (SEGMENTS * WAYS));
+		sets = Integer.highestOneBit(sets - 1) << 1;
+		if(sets == 0) sets = 1;
+		
+		for(int i = 0; i < SEGMENTS; i++) segments[i] = new Segment(sets);
+		this.capacity = sets * WAYS * SEGMENTS;
+	}
+	
+	@Override
+	public float calcFitness(PSOSolution solution) {
+		int n = solution.size();
+		int range = solution.getRange();
+		long[] packed = ScratchArena.get().longs(PACKED_SLOT, n);
+		long hash = solution.canonicalHash(packed);
+		Segment segment = segment(hash);
+		
+		int slot;
+		synchronized(segment) {
+			slot = segment.find(hash, packed, n, range);
+			while(slot >= 0 && segment.pending[slot]) {
+				//someone else is evaluating it
+				try {
+					segment.wait();
+				} catch(InterruptedException e) {
+					Thread.currentThread().interrupt();
+					break;
+				}
+				slot = segment.find(hash, packed, n, range);
+			}
+			if(slot >= 0 && !segment.pending[slot]) {
+				hits.increment();
+				segment.stamps[slot] = ++segment.clock;
+				return segment.values[slot];
+			}
+			slot = segment.reserve(hash, packed, n, range);
+		}
+		
+		misses.increment();
+		float fitness;
+		try {
+			fitness = function.calcFitness(solution);
+		} catch(RuntimeException e) {
+			if(slot >= 0) {
+				synchronized(segment) {
+					segment.stamps[slot] = 0;
+					segment.pending[slot] = false;
+					segment.notifyAll();
+				}
+			}
+			throw e;
+		}
+		
+		if(slot >= 0) {
+			synchronized(segment) {
+				segment.values[slot] = fitness;
+				segment.pending[slot] = false;
+				segment.notifyAll();
+			}
+		}
+		return fitness;
+	}
+	
+	@Override
+	public boolean supportsBatch() {
+		return function.supportsBatch();
+	}
+	
+	/***
+	 * Cached solutions are filled in, the rest go to the wrapped 
+	 * function as one smaller batch. Batches do not wait for solutions
+	 * pending on other threads, they evaluate them too.
+	 */
+	@Override
+	public void calcFitness(List<PSOSolution> solutions, float[] fitness) {
+		int n = solutions.size();
+		Batch batch = batches.get();
+		batch.missing.clear();
+		if(batch.index.length < n) {
+			batch.index = new int[n];
+			batch.computed = new float[n];
+		}
+		
+		for(int i = 0; i < n; i++) {
+			PSOSolution s = solutions.get(i);
+			long[] packed = ScratchArena.get().longs(PACKED_SLOT, s.size());
+			long hash = s.canonicalHash(packed);
+			Segment segment = segment(hash);
+			
+			synchronized(segment) {
+				int slot = segment.find(hash, packed, s.size(), s.getRange());
+				if(slot >= 0 && !segment.pending[slot]) {
+					hits.increment();
+					segment.stamps[slot] = ++segment.clock;
+					fitness[i] = segment.values[slot];
+					continue;
+				}
+			}
+			batch.index[batch.missing.size()] = i;
+			batch.missing.add(s);
+		}
+		if(batch.missing.isEmpty()) return;
+		
+		misses.add(batch.missing.size());
+		function.calcFitness(batch.missing, batch.computed);
+		
+		for(int j = 0; j < batch.missing.size(); j++) {
+			PSOSolution s = batch.missing.get(j);
+			fitness[batch.index[j]] = batch.computed[j];
+			
+			//hash again, the wrapped function may have used the arena
+			long[] packed = ScratchArena.get().longs(PACKED_SLOT, s.size());
+			long hash = s.canonicalHash(packed);
+			Segment segment = segment(hash);
+			synchronized(segment) {
+				if(segment.find(hash, packed, s.size(), s.getRange()) >= 0) continue;
+				int slot = segment.reserve(hash, packed, s.size(), s.getRange());
+				if(slot >= 0) {
+					segment.values[slot] = batch.computed[j];
+					segment.pending[slot] = false;
+				}
+			}
+		}
+		batch.missing.clear();
+	}
+	
+	public void clear() {
+		for(Segment segment : segments) {
+			synchronized(segment) {
+				//pending entries stay, their threads still fill them in
+				for(int i = 0; i < segment.stamps.length; i++) {
+					if(!segment.pending[i]) segment.stamps[i] = 0;
+				}
+			}
+		}
+	}
+	
+	public double getHitRate() {
+		long h = getHits();
+		long total = h + getMisses();
+		return total == 0 ? 0 : (double)h / total;
+	}
+	
+	private Segment segment(long hash) {
+		return segments[(int)(hash >>> 60) & (SEGMENTS - 1)];
+	}
+	
+	//bounds and disc sums come straight from the wrapped function
+	
+	@Override
+	public boolean supportsUpperBound() {
+		return function.supportsUpperBound();
+	}
+	
+	@Override
+	public float calcUpperBound(PSOSolution solution) {
+		return function.calcUpperBound(solution);
+	}
+	
+	@Override
+	public void enableDiscCache(int capacity) {
+		function.enableDiscCache(capacity);
+	}
+	
+	@Override
+	public DiscCoverageCache getDiscCache() {
+		return function.getDiscCache();
+	}
+	
+	@Override
+	public double getDiscCoverage(int x, int y, int range) {
+		return function.getDiscCoverage(x, y, range);
+	}
+	
+	@Override
+	public double calcDiscSum(int x, int y, int range) {
+		return function.calcDiscSum(x, y, range);
+	}
+	
+	@Override
+	public void close() {
+		if(function instanceof AutoCloseable) {
+			try {
+				((AutoCloseable)function).close();
+			} catch(Exception e) {
+				e.printStackTrace();
+			}
+		}
+	}
+	
+	@Override
+	public String toString() {
+		return String.format("fitness cache : %d hits, %d misses, %.1f%% hit rate",
+				getHits(), getMisses(), getHitRate() * 100);
+	}
+	
+	/***
+	 * Reused buffers for the batch path of one thread
+	 */
+	private static class Batch {
+		final List<PSOSolution> missing = new ArrayList<PSOSolution>();
+		int[] index = new int[0];
+		float[] computed = new float[0];
+	}
+	
+	private static class Segment {
+		final long[] hashes;
+		final int[] ranges;
+		final float[] values;
+		//last use of each slot, 0 when empty
+		final long[] stamps;
+		//being evaluated, value not there yet
+		final boolean[] pending;
+		final int setMask;
+		long clock;
+		
+		//sorted positions of slot i at [i * nodes, (i + 1) * nodes), 
+		//sized by the first solution stored
+		long[] positions;
+		int nodes = -1;
+		
+		Segment(int sets) {
+			hashes = new long[sets * WAYS];
+			ranges = new int[sets * WAYS];
+			values = new float[sets * WAYS];
+			stamps = new long[sets * WAYS];
+			pending = new boolean[sets * WAYS];
+			setMask = sets - 1;
+		}
+		
+		int find(long hash, long[] packed, int n, int range) {
+			if(n != nodes) return -1;
+			int first = ((int)hash & setMask) * WAYS;
+			for(int i = first; i < first + WAYS; i++) {
+				if(stamps[i] != 0 && hashes[i] == hash && ranges[i] == range && matches(i, packed)) return i;
+			}
+			return -1;
+		}
+		
+		private boolean matches(int slot, long[] packed) {
+			int base = slot * nodes;
+			for(int k = 0; k < nodes; k++) {
+				if(positions[base + k] != packed[k]) return false;
+			}
+			return true;
+		}
+		
+		/***
+		 * Take the least recently used slot of the set for a pending entry.
+		 * -1 when every slot of the set is pending or the solution has a
+		 * different node count from the ones stored here.
+		 */
+		int reserve(long hash, long[] packed, int n, int range) {
+			if(nodes < 0) {
+				nodes = n;
+				positions = new long[stamps.length * n];
+			}
+			if(n != nodes) return -1;
+			
+			int first = ((int)hash & setMask) * WAYS;
+			int victim = -1;
+			for(int i = first; i < first + WAYS; i++) {
+				if(pending[i]) continue;
+				if(victim < 0 || stamps[i] < stamps[victim]) victim = i;
+			}
+			if(victim < 0) return -1;
+			
+			hashes[victim] = hash;
+			ranges[victim] = range;
+			System.arraycopy(packed, 0, positions, victim * nodes, n);
+			stamps[victim] = ++clock;
+			pending[victim] = true;
+			return victim;
+		}
+	}
+}
@@ -0,0 +1,184 @@
+package geoptimize.pso.fitness;
+
+import java.awt.Rectangle;
+import java.util.Arrays;
+
+import geoptimize.CandidateSites;
+import geoptimize.GridData;
+import geoptimize.pso.PSOSolution;
+import geoptimize.pso.execution.ForkJoinExecutor;
+import geoptimize.pso.execution.PSOExecutor;
+
+/***
+ * Fitness for the candidate site mode, where every node sits on one of a
+ * fixed set of sites (those inside the region). The populated cells 
+ * covered by each site are worked out once, in parallel, and a solution's
+ * fitness is the union of its sites' lists. No discs are rasterized while
+ * the swarm runs.
+ * 
+ * Coverage lists are stored back to back (cells[siteStart[s], siteStart[s+1])
+ * are the region cell indices of site s, weights holding their population),
+ * only for non-zero cells, in row-major order.
+ * 
+ * Coverage is for one range. Nodes that are not on a site, or have another
+ * range, are worked out from their disc instead. The union is added up
+ * in double.
+ * 
+ * @author Callan
+ *
+ */
+public class PSOFitnessCandidateSites extends PSOFitnessFunction {
+	
+	protected final CandidateSites sites;
+	protected final int range;
+	
+	protected final int[] siteStart;
+	protected final int[] cells;
+	protected final float[] weights;
+	
+	public CandidateSites getSites() { return sites; }
+	
+	/***
+	 * Coverage is built on the common fork-join pool
+	 */
+	public PSOFitnessCandidateSites(GridData grid, Rectangle region, CandidateSites sites, int range) {
+		this(grid, region, sites, range, new ForkJoinExecutor());
+	}
+	
+	/***
+	 * @param grid
+	 * @param region
+	 * @param sites
+	 * @param range
+	 * @param executor builds the coverage lists, e.g. the simulation's
+	 */
+	public PSOFitnessCandidateSites(GridData grid, Rectangle region, CandidateSites sites, int range, PSOExecutor executor) {
+		super(grid, region);
+		this.sites = sites.within(region);
+		this.range = range;
+		
+		int n = this.sites.size();
+		int[][] siteCells = new int[n][];
+		float[][] siteWeights = new float[n][];
+		
+		executor.forRange(n, (start, end) -> {
+			for(int s = start; s < end; s++) {
+				buildCoverage(s, siteCells, siteWeights);
+			}
+		});
+		
+		siteStart = new int[n + 1];
+		for(int s = 0; s < n; s++) siteStart[s + 1] = siteStart[s] + siteCells[s].length;
+		cells = new int[siteStart[n]];
+		weights = new float[siteStart[n]];
+		for(int s = 0; s < n; s++) {
+			System.arraycopy(siteCells[s], 0, cells, siteStart[s], siteCells[s].length);
+			System.arraycopy(siteWeights[s], 0, weights, siteStart[s], siteWeights[s].length);
+		}
+		
+		System.out.println("Candidate sites : " + n + ", covered cells stored : " + cells.length);
+	}
+	
+	private void buildCoverage(int s, int[][] siteCells, float[][] siteWeights) {
+		int[] widths = DiscStamps.halfWidths(range);
+		int cx = sites.getX(s);
+		int cy = sites.getY(s);
+		
+		int[] c = new int[16];
+		float[] w = new float[16];
+		int count = 0;
+		
+		int y0 = Math.max(cy - widths.length + 1, region.y);
+		int y1 = Math.min(cy + widths.length - 1, region.y + region.height - 1);
+		for(int y = y0; y <= y1; y++) {
+			int hw = widths[Math.abs(y - cy)];
+			int x0 = Math.max(cx - hw, region.x);
+			int x1 = Math.min(cx + hw, region.x + region.width - 1);
+			for(int x = x0; x <= x1; x++) {
+				float value = grid.get(x, y);
+				if(value == 0) continue;
+				if(count == c.length) {
+					c = Arrays.copyOf(c, count * 2);
+					w = Arrays.copyOf(w, count * 2);
+				}
+				c[count] = (y - region.y) * region.width + (x - region.x);
+				w[count] = value;
+				count++;
+			}
+		}
+		siteCells[s] = Arrays.copyOf(c, count);
+		siteWeights[s] = Arrays.copyOf(w, count);
+	}
+	
+	/***
+	 * The site at (x, y), or -1 if there is no site exactly there
+	 */
+	protected int siteAt(int x, int y) {
+		int s = sites.nearest(x, y);
+		return sites.getX(s) == x && sites.getY(s) == y ? s : -1;
+	}
+	
+	@Override
+	public float calcFitness(PSOSolution solution) {
+		ScratchArena arena = ScratchArena.get();
+		int generation = arena.beginMarks(region.width * region.height);
+		int[] marks = arena.getMarks();
+		
+		double fitness = 0;
+		for(int i = 0; i < solution.size(); i++) {
+			int s = solution.getRange(i) == range ? siteAt(solution.getX(i), solution.getY(i)) : -1;
+			
+			if(s >= 0) {
+				for(int k = siteStart[s]; k < siteStart[s + 1]; k++) {
+					int cell = cells[k];
+					if(marks[cell] == generation) continue;
+					marks[cell] = generation;
+					fitness += weights[k];
+				}
+			} else {
+				fitness += markDisc(solution.getX(i), solution.getY(i), solution.getRange(i), marks, generation);
+			}
+		}
+		return (float)fitness;
+	}
+	
+	/***
+	 * Marks the unmarked populated cells of a disc and returns their sum
+	 */
+	private double markDisc(int cx, int cy, int r, int[] marks, int generation) {
+		int[] widths = DiscStamps.halfWidths(r);
+		double sum = 0;
+		int y0 = Math.max(cy - widths.length + 1, region.y);
+		int y1 = Math.min(cy + widths.length - 1, region.y + region.height - 1);
+		for(int y = y0; y <= y1; y++) {
+			int hw = widths[Math.abs(y - cy)];
+			int x0 = Math.max(cx - hw, region.x);
+			int x1 = Math.min(cx + hw, region.x + region.width - 1);
+			for(int x = x0; x <= x1; x++) {
+				int cell = (y - region.y) * region.width + (x - region.x);
+				if(marks[cell] == generation) continue;
+				marks[cell] = generation;
+				sum += grid.get(x, y);
+			}
+		}
+		return sum;
+	}
+	
+	/***
+	 * A site's stored coverage, or the disc when (x, y, range) is not a site
+	 */
+	@Override
+	public double calcDiscSum(int x, int y, int r) {
+		int s = r == range ? siteAt(x, y) : -1;
+		if(s < 0) return super.calcDiscSum(x, y, r);
+		
+		double sum = 0;
+		for(int k = siteStart[s]; k < siteStart[s + 1]; k++) sum += weights[k];
+		return sum;
+	}
+	
+	@Override
+	public boolean supportsUpperBound() {
+		return true;
+	}
+}
@@ -3,7 +3,6 @@ package geoptimize.pso.fitness;
 import java.awt.Rectangle;
 
 import geoptimize.GridData;
-import geoptimize.ServiceNode;
 import geoptimize.pso.PSOSolution;
 
 
@@ -24,19 +23,22 @@ public class PSOFitnessFast extends PSOFitnessFunction {
 	@Override
 	public float calcFitness(PSOSolution solution) {
 
-		float[] inrange = new float[region.width * region.height];
+		//covered cells are marked with this evaluation's generation
+		ScratchArena arena = ScratchArena.get();
+		int generation = arena.beginMarks(region.width * region.height);
+		int[] inrange = arena.getMarks();
 		
 		for(int y = (int)region.getMinY(); y < region.getMaxY(); y++) {
 			for(int x = (int)region.getMinX(); x < region.getMaxX(); x++) {
-				for(ServiceNode n : solution.getNodes()) {
-					int xdist = x - n.getPosition().x;
-					int ydist = y - n.getPosition().y;
+				for(int i = 0; i < solution.size(); i++) {
+					int xdist = x - solution.getX(i);
+					int ydist = y - solution.getY(i);
 					int distsqr = xdist*xdist+ydist*ydist;
 					
-					if(distsqr < n.getRange() * n.getRange()) {
+					if(distsqr < solution.getRange(i) * solution.getRange(i)) {
 						int rx = x - region.x;
 						int ry = y - region.y;
-						inrange[ry*region.width + rx] = grid.get(x, y);
+						inrange[ry*region.width + rx] = generation;
 					}
 					
 				}
@@ -46,7 +48,7 @@ public class PSOFitnessFast extends PSOFitnessFunction {
 		float fitness = 0;
 		for(int ry = 0; ry < region.height; ry++) {
 			for(int rx = 0; rx < region.width; rx++) {
-				fitness += inrange[ry*region.width+rx];
+				if(inrange[ry*region.width+rx] == generation) fitness += grid.get(region.x + rx, region.y + ry);
 			}
 		}
 		return fitness;
@@ -1,6 +1,7 @@
 package geoptimize.pso.fitness;
 
 import java.awt.Rectangle;
+import java.util.List;
 
 import geoptimize.GridData;
 import geoptimize.pso.PSOSolution;
@@ -16,13 +17,143 @@ public abstract class PSOFitnessFunction {
 	protected GridData grid;
 	protected Rectangle region;
 	
+	//per-node sums, null until enableDiscCache
+	protected DiscCoverageCache discCache;
+	public DiscCoverageCache getDiscCache() { return discCache; }
+	
 	public PSOFitnessFunction(GridData grid, Rectangle region) {
 		this.grid = grid;
 		this.region = region;
 	}
 	
+	/***
+	 * Cache single disc sums from now on, see getDiscCoverage
+	 * @param capacity number of discs kept
+	 */
+	public void enableDiscCache(int capacity) {
+		discCache = new DiscCoverageCache(capacity, this::calcDiscSum);
+	}
+	
+	/***
+	 * Population under one node's disc, clipped to the region.
+	 * Goes through the disc cache when it is enabled.
+	 * @param x
+	 * @param y
+	 * @param range
+	 * @return
+	 */
+	public double getDiscCoverage(int x, int y, int range) {
+		return discCache != null ? discCache.get(x, y, range) : calcDiscSum(x, y, range);
+	}
+	
+	/***
+	 * Uncached population under one disc, clipped to the region.
+	 * Default visits every cell of the disc, functions with a faster
+	 * layout override it.
+	 */
+	public double calcDiscSum(int x, int y, int range) {
+		int x0 = Math.max(x - range + 1, region.x);
+		int x1 = Math.min(x + range, region.x + region.width);
+		int y0 = Math.max(y - range + 1, region.y);
+		int y1 = Math.min(y + range, region.y + region.height);
+		
+		double sum = 0;
+		for(int cy = y0; cy < y1; cy++) {
+			for(int cx = x0; cx < x1; cx++) {
+				int dx = cx - x;
+				int dy = cy - y;
+				if(dx * dx + dy * dy < range * range) sum += grid.get(cx, cy);
+			}
+		}
+		return sum;
+	}
+	
 	public float calcFitness(PSOSolution solution) {
 		return 0f;
 	}
+	
+	/***
+	 * True if calcFitness(List) does better than calling 
+	 * calcFitness once per solution, e.g. by sweeping the grid once
+	 * for the whole swarm.
+	 * @return
+	 */
+	public boolean supportsBatch() {
+		return false;
+	}
+	
+	/***
+	 * Fitness of several solutions, written to fitness[i] for solutions.get(i).
+	 * Default evaluates them one at a time.
+	 * @param solutions
+	 * @param fitness
+	 */
+	public void calcFitness(List<PSOSolution> solutions, float[] fitness) {
+		for(int i = 0; i < solutions.size(); i++) {
+			fitness[i] = calcFitness(solutions.get(i));
+		}
+	}
+	
+	/***
+	 * True if calcUpperBound is cheaper than calcFitness and worth 
+	 * checking before an exact evaluation.
+	 * @return
+	 */
+	public boolean supportsUpperBound() {
+		return false;
+	}
+	
+	/***
+	 * A value calcFitness(solution) can not exceed. When supportsUpperBound
+	 * this is sumDiscCoverage, otherwise there is no bound.
+	 * @param solution
+	 * @return
+	 */
+	public float calcUpperBound(PSOSolution solution) {
+		if(!supportsUpperBound()) return Float.POSITIVE_INFINITY;
+		return (float)sumDiscCoverage(solution);
+	}
+	
+	/***
+	 * Sum of the population under each node's disc, counted separately
+	 * so overlapping cells count more than once. Populations are never 
+	 * negative, so this is never below calcFitness. With the disc cache
+	 * enabled most nodes are a single lookup.
+	 * @param solution
+	 * @return
+	 */
+	protected double sumDiscCoverage(PSOSolution solution) {
+		double sum = 0;
+		for(int i = 0; i < solution.size(); i++) {
+			sum += getDiscCoverage(solution.getX(i), solution.getY(i), solution.getRange(i));
+		}
+		return sum;
+	}
+	
+	public float[] calcFitness(List<PSOSolution> solutions) {
+		float[] fitness = new float[solutions.size()];
+		calcFitness(solutions, fitness);
+		return fitness;
+	}
+	
+	/***
+	 * Create the fitness function for a given type.
+	 * @param type
+	 * @param grid
+	 * @param region
+	 * @return
+	 */
+	public static PSOFitnessFunction create(FitnessType type, GridData grid, Rectangle region) {
+		switch(type) {
+		case Simple: return new PSOFitnessSimple(grid, region);
+		case BinaryRange: return new PSOFitnessBinaryRange(grid, region);
+		case BinaryRangeFast: return new PSOFitnessFast(grid, region);
+		case BinaryRangePrefixSum: return new PSOFitnessPrefixSum(grid, region);
+		case BinaryRangeTiled: return new PSOFitnessTiled(grid, region);
+		case BinaryRangeBitset: return new PSOFitnessBitset(grid, region);
+		case BinaryRangeQuadtree: return new PSOFitnessQuadtree(grid, region);
+		default: throw new IllegalArgumentException("Unsupported fitness type : " + type);
+		}
+	}
 
 }
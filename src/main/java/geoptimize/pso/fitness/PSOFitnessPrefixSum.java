@@ -0,0 +1,164 @@
+package geoptimize.pso.fitness;
+
+import java.awt.Rectangle;
+
+import geoptimize.GridData;
+import geoptimize.pso.PSOSolution;
+
+/***
+ * BinaryRange coverage without visiting every cell of the region.
+ *
+ * Each row of the region is stored as a prefix sum. A node's disc is cut
+ * into one horizontal span per row, spans from different nodes are merged
+ * per row so overlapping cells are only counted once, and each merged span
+ * costs two prefix lookups. Cost is (rows covered by discs * nodes) rather
+ * than (region area * nodes).
+ *
+ * Rows are summed in double while PSOFitnessBinaryRange adds in float,
+ * so the two can differ once the covered total passes 2^24.
+ *
+ * @author Callan
+ *
+ */
+public class PSOFitnessPrefixSum extends PSOFitnessFunction {
+
+	//prefix[ry * stride + rx] is the sum of the first rx cells of region row ry
+	protected double[] prefix;
+	protected int stride;
+
+	public PSOFitnessPrefixSum(GridData grid, Rectangle region) {
+		super(grid, region);
+
+		stride = region.width + 1;
+		prefix = new double[region.height * stride];
+
+		for(int ry = 0; ry < region.height; ry++) {
+			int row = ry * stride;
+			double sum = 0;
+			for(int rx = 0; rx < region.width; rx++) {
+				sum += grid.get(region.x + rx, region.y + ry);
+				prefix[row + rx + 1] = sum;
+			}
+		}
+	}
+
+	/***
+	 * Sum of region row y (grid coordinates) between [x0, x1)
+	 * @param y
+	 * @param x0
+	 * @param x1
+	 * @return
+	 */
+	public double rowSum(int y, int x0, int x1) {
+		int row = (y - region.y) * stride - region.x;
+		return prefix[row + x1] - prefix[row + x0];
+	}
+
+	/***
+	 * Half width of each row of a disc with the given range, see DiscStamps
+	 * @param range
+	 * @return
+	 */
+	protected int[] getHalfWidths(int range) {
+		return DiscStamps.halfWidths(range);
+	}
+
+	@Override
+	public boolean supportsUpperBound() {
+		return true;
+	}
+	
+	/***
+	 * One prefix lookup pair per row of the disc
+	 */
+	@Override
+	public double calcDiscSum(int cx, int cy, int range) {
+		int[] widths = getHalfWidths(range);
+		int minX = region.x;
+		int maxX = region.x + region.width;
+		int y0 = Math.max(cy - widths.length + 1, region.y);
+		int y1 = Math.min(cy + widths.length - 1, region.y + region.height - 1);
+		
+		double sum = 0;
+		for(int y = y0; y <= y1; y++) {
+			int hw = widths[Math.abs(y - cy)];
+			int a = Math.max(cx - hw, minX);
+			int b = Math.min(cx + hw + 1, maxX);
+			if(a < b) sum += rowSum(y, a, b);
+		}
+		return sum;
+	}
+	
+	@Override
+	public float calcFitness(PSOSolution solution) {
+		int n = solution.size();
+
+		ScratchArena arena = ScratchArena.get();
+		int[] cx = arena.ints(0, n);
+		int[] cy = arena.ints(1, n);
+		int[][] widths = arena.rows(0, n);
+		int[] starts = arena.ints(2, n);
+		int[] ends = arena.ints(3, n);
+
+		int minX = region.x;
+		int maxX = region.x + region.width;
+		int minY = region.y + region.height;
+		int maxY = region.y - 1;
+
+		for(int i = 0; i < n; i++) {
+			cx[i] = solution.getX(i);
+			cy[i] = solution.getY(i);
+			widths[i] = getHalfWidths(solution.getRange(i));
+
+			int r = widths[i].length;
+			if(r == 0) continue;
+			minY = Math.min(minY, cy[i] - r + 1);
+			maxY = Math.max(maxY, cy[i] + r - 1);
+		}
+
+		minY = Math.max(minY, region.y);
+		maxY = Math.min(maxY, region.y + region.height - 1);
+
+		double fitness = 0;
+		for(int y = minY; y <= maxY; y++) {
+
+			//collect this row's spans, kept sorted by start (n is small)
+			int count = 0;
+			for(int i = 0; i < n; i++) {
+				int dy = Math.abs(y - cy[i]);
+				if(dy >= widths[i].length) continue;
+
+				int hw = widths[i][dy];
+				int a = Math.max(cx[i] - hw, minX);
+				int b = Math.min(cx[i] + hw + 1, maxX);
+				if(a >= b) continue;
+
+				int j = count++;
+				while(j > 0 && starts[j - 1] > a) {
+					starts[j] = starts[j - 1];
+					ends[j] = ends[j - 1];
+					j--;
+				}
+				starts[j] = a;
+				ends[j] = b;
+			}
+			if(count == 0) continue;
+
+			//merge overlapping spans and sum them
+			int a = starts[0];
+			int b = ends[0];
+			for(int j = 1; j < count; j++) {
+				if(starts[j] <= b) {
+					b = Math.max(b, ends[j]);
+				} else {
+					fitness += rowSum(y, a, b);
+					a = starts[j];
+					b = ends[j];
+				}
+			}
+			fitness += rowSum(y, a, b);
+		}
+
+		return (float)fitness;
+	}
+}
@@ -0,0 +1,114 @@
+package geoptimize.pso.fitness;
+
+import java.awt.Rectangle;
+
+import geoptimize.GridData;
+import geoptimize.QuadTree;
+import geoptimize.pso.PSOSolution;
+
+/***
+ * BinaryRange coverage answered from the grid's QuadTree. A tree node inside any disc adds its stored sum, a node no 
+ * disc reaches is skipped, and only nodes on disc edges are opened, 
+ * checked against just the discs that touch them. Cost follows the
+ * length of the disc edges rather than their area.
+ * 
+ * The tree is built once per GridData and shared. Its subtree sums are
+ * doubles, so large totals are not rounded the way BinaryRange's are.
+ * 
+ * @author Callan
+ *
+ */
+public class PSOFitnessQuadtree extends PSOFitnessFunction {
+	
+	protected final QuadTree tree;
+	public QuadTree getTree() { return tree; }
+	
+	public PSOFitnessQuadtree(GridData grid, Rectangle region) {
+		super(grid, region);
+		tree = grid.getQuadTree();
+	}
+	
+	@Override
+	public float calcFitness(PSOSolution solution) {
+		int n = solution.size();
+		if(n == 0 || tree.getRoot() < 0) return 0f;
+		
+		//discs touching the node at each depth, n entries per level
+		int[] touching = ScratchArena.get().ints(0, n * (tree.getDepth() + 2));
+		for(int i = 0; i < n; i++) touching[i] = i;
+		
+		return (float)sum(solution, tree.getRoot(), 0, 0, tree.getRootSize(), touching, 0, n);
+	}
+	
+	/***
+	 * Covered population of the node at (x, y) with the given size.
+	 * The candidate discs are touching[level, level + count).
+	 */
+	private double sum(PSOSolution solution, int node, int x, int y, int size, int[] touching, int level, int count) {
+		int x0 = Math.max(x, region.x);
+		int y0 = Math.max(y, region.y);
+		int x1 = Math.min(Math.min(x + size, grid.width), region.x + region.width);
+		int y1 = Math.min(Math.min(y + size, grid.height), region.y + region.height);
+		if(x0 >= x1 || y0 >= y1) return 0;
+		
+		boolean clipped = x0 > x || y0 > y 
+				|| x1 < Math.min(x + size, grid.width) || y1 < Math.min(y + size, grid.height);
+		
+		//discs that reach this node go to the next level
+		int next = level + solution.size();
+		int nextCount = 0;
+		for(int k = level; k < level + count; k++) {
+			int i = touching[k];
+			int cx = solution.getX(i);
+			int cy = solution.getY(i);
+			int r2 = solution.getRange(i) * solution.getRange(i);
+			if(!QuadTree.touches(cx, cy, r2, x0, y0, x1, y1)) continue;
+			if(!clipped && QuadTree.contains(cx, cy, r2, x0, y0, x1, y1)) return tree.getSum(node);
+			touching[next + nextCount++] = i;
+		}
+		if(nextCount == 0) return 0;
+		
+		if(size <= QuadTree.LEAF_SIZE) {
+			double total = 0;
+			for(int py = y0; py < y1; py++) {
+				for(int px = x0; px < x1; px++) {
+					float value = grid.get(px, py);
+					if(value == 0) continue;
+					
+					for(int k = next; k < next + nextCount; k++) {
+						int i = touching[k];
+						int dx = px - solution.getX(i);
+						int dy = py - solution.getY(i);
+						if(dx * dx + dy * dy < solution.getRange(i) * solution.getRange(i)) {
+							total += value;
+							break;
+						}
+					}
+				}
+			}
+			return total;
+		}
+		
+		int half = size / 2;
+		double total = 0;
+		for(int k = 0; k < 4; k++) {
+			int child = tree.getChild(node, k);
+			if(child < 0) continue;
+			total += sum(solution, child, x + (k & 1) * half, y + (k >> 1) * half, half, touching, next, nextCount);
+		}
+		return total;
+	}
+	
+	/***
+	 * Single disc straight from the tree
+	 */
+	@Override
+	public double calcDiscSum(int x, int y, int range) {
+		return tree.discSum(x, y, range, region.x, region.y, region.x + region.width, region.y + region.height);
+	}
+	
+	@Override
+	public boolean supportsUpperBound() {
+		return true;
+	}
+}
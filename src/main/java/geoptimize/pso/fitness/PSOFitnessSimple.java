@@ -3,7 +3,6 @@ package geoptimize.pso.fitness;
 import java.awt.Rectangle;
 
 import geoptimize.GridData;
-import geoptimize.ServiceNode;
 import geoptimize.pso.PSOSolution;
 
 public class PSOFitnessSimple extends PSOFitnessFunction {
@@ -23,8 +22,8 @@ public class PSOFitnessSimple extends PSOFitnessFunction {
 	public float calcFitness(PSOSolution solution) {
 		//basic fitness (fitness is population the nodes are placed on)
 		float fitness = 0;
-		for(ServiceNode node : solution.getNodes()) {
-			fitness += grid.get(node.getPosition());
+		for(int i = 0; i < solution.size(); i++) {
+			fitness += grid.get(solution.getX(i), solution.getY(i));
 		}
 		return fitness;
 		
@@ -0,0 +1,139 @@
+package geoptimize.pso.fitness;
+
+import java.awt.Rectangle;
+
+import geoptimize.GridData;
+import geoptimize.TiledGridData;
+import geoptimize.helper.MathHelper;
+import geoptimize.pso.PSOSolution;
+
+/***
+ * BinaryRange coverage worked out tile by tile on a TiledGridData copy
+ * of the region.
+ * 
+ * Only tiles under the bounding box of the discs are looked at. Tiles with
+ * no population, or touched by no disc, are skipped from their summary.
+ * A tile that lies entirely inside one disc adds its stored sum. Only
+ * tiles crossed by a disc boundary are walked cell by cell, and then only
+ * against the discs that touch them.
+ * 
+ * Tile sums are doubles, so past 2^24 the total can drift from
+ * PSOFitnessBinaryRange's float one.
+ * 
+ * @author Callan
+ *
+ */
+public class PSOFitnessTiled extends PSOFitnessFunction {
+	
+	protected final TiledGridData tiles;
+	
+	public PSOFitnessTiled(GridData grid, Rectangle region) {
+		this(grid, region, TiledGridData.DEFAULT_TILE_SIZE);
+	}
+	
+	public PSOFitnessTiled(GridData grid, Rectangle region, int tileSize) {
+		super(grid, region);
+		tiles = new TiledGridData(grid, region, tileSize);
+	}
+	
+	public TiledGridData getTiles() { return tiles; }
+
+	@Override
+	public float calcFitness(PSOSolution solution) {
+		int n = solution.size();
+		int size = tiles.tileSize;
+		if(n == 0 || tiles.tilesX == 0 || tiles.tilesY == 0) return 0f;
+		
+		//tiles under the bounding box of all discs
+		int minX = Integer.MAX_VALUE, maxX = Integer.MIN_VALUE;
+		int minY = Integer.MAX_VALUE, maxY = Integer.MIN_VALUE;
+		for(int i = 0; i < n; i++) {
+			int r = solution.getRange(i);
+			minX = Math.min(minX, solution.getX(i) - r);
+			maxX = Math.max(maxX, solution.getX(i) + r);
+			minY = Math.min(minY, solution.getY(i) - r);
+			maxY = Math.max(maxY, solution.getY(i) + r);
+		}
+		
+		int tx0 = MathHelper.clamp(0, tiles.tilesX - 1, Math.floorDiv(minX - region.x, size));
+		int tx1 = MathHelper.clamp(0, tiles.tilesX - 1, Math.floorDiv(maxX - region.x, size));
+		int ty0 = MathHelper.clamp(0, tiles.tilesY - 1, Math.floorDiv(minY - region.y, size));
+		int ty1 = MathHelper.clamp(0, tiles.tilesY - 1, Math.floorDiv(maxY - region.y, size));
+		
+		int[] touching = ScratchArena.get().ints(0, n);
+		
+		double fitness = 0;
+		for(int ty = ty0; ty <= ty1; ty++) {
+			for(int tx = tx0; tx <= tx1; tx++) {
+				int t = tiles.tileIndex(tx, ty);
+				if(tiles.getTileNonZero(t) == 0) continue;
+				
+				//cells of the tile are [x0, x1) x [y0, y1)
+				int x0 = region.x + tx * size;
+				int y0 = region.y + ty * size;
+				int x1 = Math.min(x0 + size, region.x + region.width);
+				int y1 = Math.min(y0 + size, region.y + region.height);
+				
+				int count = 0;
+				boolean inside = false;
+				for(int i = 0; i < n && !inside; i++) {
+					int cx = solution.getX(i);
+					int cy = solution.getY(i);
+					int r2 = solution.getRange(i) * solution.getRange(i);
+					
+					//closest cell of the tile to the node
+					int dx = MathHelper.clamp(x0, x1 - 1, cx) - cx;
+					int dy = MathHelper.clamp(y0, y1 - 1, cy) - cy;
+					if(dx * dx + dy * dy >= r2) continue;
+					
+					//discs are convex, so the tile is inside if its corner cells are
+					inside = covers(cx, cy, r2, x0, y0) && covers(cx, cy, r2, x1 - 1, y0)
+							&& covers(cx, cy, r2, x0, y1 - 1) && covers(cx, cy, r2, x1 - 1, y1 - 1);
+					touching[count++] = i;
+				}
+				
+				if(inside) {
+					fitness += tiles.getTileSum(t);
+				} else if(count > 0) {
+					fitness += sumTile(solution, touching, count, t, x0, y0, x1, y1);
+				}
+			}
+		}
+		
+		return (float)fitness;
+	}
+	
+	private static boolean covers(int cx, int cy, int r2, int x, int y) {
+		int dx = x - cx;
+		int dy = y - cy;
+		return dx * dx + dy * dy < r2;
+	}
+	
+	/***
+	 * Sum of the cells of tile t covered by any of the touching nodes
+	 */
+	private double sumTile(PSOSolution solution, int[] touching, int count, int t, int x0, int y0, int x1, int y1) {
+		float[] data = tiles.getData();
+		int offset = tiles.tileOffset(t);
+		int size = tiles.tileSize;
+		
+		double sum = 0;
+		for(int y = y0; y < y1; y++) {
+			int row = offset + (y - y0) * size - x0;
+			for(int x = x0; x < x1; x++) {
+				float value = data[row + x];
+				if(value == 0) continue;
+				
+				for(int k = 0; k < count; k++) {
+					int i = touching[k];
+					int r = solution.getRange(i);
+					if(covers(solution.getX(i), solution.getY(i), r * r, x, y)) {
+						sum += value;
+						break;
+					}
+				}
+			}
+		}
+		return sum;
+	}
+}
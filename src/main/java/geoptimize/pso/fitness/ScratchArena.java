@@ -0,0 +1,104 @@
+package geoptimize.pso.fitness;
+
+import java.util.Arrays;
+
+/***
+ * Reusable per-thread buffers for fitness functions, so an evaluation
+ * in steady state allocates nothing. Buffers only grow.
+ * 
+ * Marks replace a cleared boolean/float array per evaluation: each
+ * evaluation takes a new generation, and a cell is marked when its entry
+ * equals that generation. Nothing is zeroed between evaluations.
+ * 
+ * Int buffers are numbered slots. A buffer is only valid until the same
+ * slot is asked for again on this thread, so a fitness function must not
+ * call into another one while it is still using its buffers.
+ * 
+ * @author Callan
+ *
+ */
+public final class ScratchArena {
+	
+	public static final int SLOTS = 8;
+	
+	private static final ThreadLocal<ScratchArena> LOCAL = ThreadLocal.withInitial(ScratchArena::new);
+	
+	/***
+	 * This thread's arena
+	 */
+	public static ScratchArena get() {
+		return LOCAL.get();
+	}
+	
+	private int[] marks = new int[0];
+	private int generation;
+	
+	private final int[][] ints = new int[SLOTS][];
+	private final long[][] longs = new long[SLOTS][];
+	private final int[][][] rows = new int[SLOTS][][];
+	
+	private ScratchArena() {
+		for(int i = 0; i < SLOTS; i++) {
+			ints[i] = new int[0];
+			longs[i] = new long[0];
+			rows[i] = new int[0][];
+		}
+	}
+	
+	/***
+	 * Start a new set of marks over at least size cells, all unmarked.
+	 * Cell i is marked when getMarks()[i] == the returned generation.
+	 * @param size
+	 * @return the generation
+	 */
+	public int beginMarks(int size) {
+		if(marks.length < size) {
+			marks = new int[size];
+			generation = 0;
+		}
+		if(generation == Integer.MAX_VALUE) {
+			//wrapped, old stamps could match again
+			Arrays.fill(marks, 0);
+			generation = 0;
+		}
+		return ++generation;
+	}
+	
+	public int[] getMarks() {
+		return marks;
+	}
+	
+	/***
+	 * Int buffer of at least size entries, contents undefined
+	 * @param slot 0 to SLOTS - 1
+	 * @param size
+	 * @return
+	 */
+	public int[] ints(int slot, int size) {
+		if(ints[slot].length < size) ints[slot] = new int[Math.max(size, ints[slot].length * 2)];
+		return ints[slot];
+	}
+	
+	/***
+	 * Long buffer of at least size entries. New buffers are zeroed, 
+	 * after that the contents are whatever the last user left.
+	 * @param slot 0 to SLOTS - 1
+	 * @param size
+	 * @return
+	 */
+	public long[] longs(int slot, int size) {
+		if(longs[slot].length < size) longs[slot] = new long[Math.max(size, longs[slot].length * 2)];
+		return longs[slot];
+	}
+	
+	/***
+	 * Buffer of at least size int[] references, contents undefined
+	 * @param slot 0 to SLOTS - 1
+	 * @param size
+	 * @return
+	 */
+	public int[][] rows(int slot, int size) {
+		if(rows[slot].length < size) rows[slot] = new int[Math.max(size, rows[slot].length * 2)][];
+		return rows[slot];
+	}
+}
@@ -0,0 +1,40 @@
+package geoptimize.pso.stopping;
+
+import geoptimize.pso.PSOSimulation;
+
+/***
+ * Stop when the global best has not improved for a number of iterations.
+ * 
+ * @author Callan
+ *
+ */
+public class StagnationCriterion extends StoppingCriterion {
+	
+	private final int iterations;
+	private float bestFitness = Float.NEGATIVE_INFINITY;
+	private int lastImprovement;
+	
+	public StagnationCriterion(int iterations) {
+		this.iterations = iterations;
+	}
+
+	@Override
+	public String check(PSOSimulation simulation) {
+		float fitness = simulation.getGlobalBest().getFitness();
+		if(fitness > bestFitness) {
+			bestFitness = fitness;
+			lastImprovement = simulation.getCurrentIteration();
+			return null;
+		}
+		if(simulation.getCurrentIteration() - lastImprovement >= iterations) {
+			return "No improvement for " + iterations + " iterations";
+		}
+		return null;
+	}
+	
+	@Override
+	public void reset() {
+		bestFitness = Float.NEGATIVE_INFINITY;
+		lastImprovement = 0;
+	}
+}
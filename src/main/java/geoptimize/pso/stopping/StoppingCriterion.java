@@ -0,0 +1,37 @@
+package geoptimize.pso.stopping;
+
+import java.util.List;
+
+import geoptimize.pso.PSOSimulation;
+
+/***
+ * Decides when a run can end before its iteration limit.
+ * Checked once after every step, so checks must be cheap.
+ * 
+ * @author Callan
+ *
+ */
+public abstract class StoppingCriterion {
+	
+	/***
+	 * @param simulation
+	 * @return why the run should stop, or null to keep going
+	 */
+	public abstract String check(PSOSimulation simulation);
+	
+	/***
+	 * Forget any state from a previous run.
+	 */
+	public void reset() { }
+	
+	/***
+	 * @return the first reason to stop from a list of criteria, or null
+	 */
+	public static String checkAll(List<StoppingCriterion> criteria, PSOSimulation simulation) {
+		for(StoppingCriterion c : criteria) {
+			String reason = c.check(simulation);
+			if(reason != null) return reason;
+		}
+		return null;
+	}
+}
@@ -0,0 +1,28 @@
+package geoptimize.pso.stopping;
+
+import geoptimize.pso.PSOSimulation;
+
+/***
+ * Stop when the swarm has collapsed: every node's positions across all
+ * particles fit in a box no wider than the threshold.
+ * 
+ * @author Callan
+ *
+ */
+public class SwarmDiameterCriterion extends StoppingCriterion {
+	
+	private final float threshold;
+	
+	public SwarmDiameterCriterion(float threshold) {
+		this.threshold = threshold;
+	}
+
+	@Override
+	public String check(PSOSimulation simulation) {
+		int diameter = simulation.getSwarm().getDiameter();
+		if(diameter <= threshold) {
+			return "Swarm diameter " + diameter + " <= " + threshold;
+		}
+		return null;
+	}
+}
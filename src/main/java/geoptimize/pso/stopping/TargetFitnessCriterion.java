@@ -0,0 +1,27 @@
+package geoptimize.pso.stopping;
+
+import geoptimize.pso.PSOSimulation;
+
+/***
+ * Stop when the global best reaches a target fitness.
+ * 
+ * @author Callan
+ *
+ */
+public class TargetFitnessCriterion extends StoppingCriterion {
+	
+	private final float target;
+	
+	public TargetFitnessCriterion(float target) {
+		this.target = target;
+	}
+
+	@Override
+	public String check(PSOSimulation simulation) {
+		float fitness = simulation.getGlobalBest().getFitness();
+		if(fitness >= target) {
+			return "Target fitness " + target + " reached (" + fitness + ")";
+		}
+		return null;
+	}
+}
@@ -0,0 +1,35 @@
+package geoptimize.pso.stopping;
+
+import geoptimize.pso.PSOSimulation;
+
+/***
+ * Stop once a wall-clock budget has been used. 
+ * The clock starts at reset(), or the first check if it was never reset.
+ * 
+ * @author Callan
+ *
+ */
+public class TimeBudgetCriterion extends StoppingCriterion {
+	
+	private final long budgetNanos;
+	private long start = -1;
+	
+	public TimeBudgetCriterion(long millis) {
+		this.budgetNanos = millis * 1000000L;
+	}
+
+	@Override
+	public String check(PSOSimulation simulation) {
+		long now = System.nanoTime();
+		if(start < 0) start = now;
+		if(now - start >= budgetNanos) {
+			return "Time budget of " + budgetNanos / 1000000L + "ms used";
+		}
+		return null;
+	}
+	
+	@Override
+	public void reset() {
+		start = System.nanoTime();
+	}
+}
@@ -0,0 +1,27 @@
+package geoptimize.pso.stopping;
+
+import geoptimize.pso.PSOSimulation;
+
+/***
+ * Stop when no node of any particle is moving faster than the threshold.
+ * 
+ * @author Callan
+ *
+ */
+public class VelocityCriterion extends StoppingCriterion {
+	
+	private final float threshold;
+	
+	public VelocityCriterion(float threshold) {
+		this.threshold = threshold;
+	}
+
+	@Override
+	public String check(PSOSimulation simulation) {
+		float speed = simulation.getSwarm().getMaxSpeed();
+		if(speed < threshold) {
+			return "Max velocity " + speed + " < " + threshold;
+		}
+		return null;
+	}
+}
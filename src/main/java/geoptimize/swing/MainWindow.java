@@ -191,6 +191,10 @@ public class MainWindow extends JFrame {
 					window.simulationCanvas.paintImmediately(window.simulationCanvas.getVisibleRect());
 					break;
 				}
+				case "stopReason": {
+					window.lblStatusBar.setText("Stopped : " + evt.getNewValue());
+					break;
+				}
 			}
 			
 		}
@@ -0,0 +1,133 @@
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
+import java.awt.image.WritableRaster;
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+import geoptimize.GridData;
+import geoptimize.distributed.FitnessProtocol;
+import geoptimize.distributed.FitnessWorker;
+import geoptimize.distributed.PSOFitnessDistributed;
+import geoptimize.pso.PSOSolution;
+import geoptimize.pso.fitness.FitnessType;
+import geoptimize.pso.fitness.PSOFitnessPrefixSum;
+
+public class DistributedTests {
+	
+	private static GridData createGrid(int width, int height, long seed) {
+		BufferedImage img = new BufferedImage(width, height, BufferedImage.TYPE_USHORT_GRAY);
+		WritableRaster raster = img.getRaster();
+		Random r = new Random(seed);
+		for(int y = 0; y < height; y++) {
+			for(int x = 0; x < width; x++) {
+				if(r.nextInt(4) == 0) raster.setSample(x, y, 0, r.nextInt(200));
+			}
+		}
+		return new GridData(img);
+	}
+	
+	private static List<PSOSolution> createSolutions(Rectangle region, int n) {
+		List<PSOSolution> solutions = new ArrayList<PSOSolution>();
+		for(int i = 0; i < n; i++) {
+			solutions.add(PSOSolution.CreateRandom(1 + i % 5, 5 + i % 25, region));
+		}
+		return solutions;
+	}
+	
+	private static InetSocketAddress address(int port) {
+		return new InetSocketAddress("localhost", port);
+	}
+	
+	@Test
+	public void testWorkersMatchLocalAndSurviveFailures() throws IOException {
+		GridData grid = createGrid(300, 200, 1);
+		Rectangle region = new Rectangle(40, 30, 200, 150);
+		PSOFitnessPrefixSum local = new PSOFitnessPrefixSum(grid, region);
+		List<PSOSolution> solutions = createSolutions(region, 40);
+		
+		float[] expected = new float[solutions.size()];
+		for(int i = 0; i < expected.length; i++) expected[i] = local.calcFitness(solutions.get(i));
+		
+		FitnessWorker a = new FitnessWorker(0).start();
+		FitnessWorker b = new FitnessWorker(0).start();
+		
+		PSOFitnessDistributed distributed = new PSOFitnessDistributed(
+				grid, region, FitnessType.BinaryRangePrefixSum, 
+				Arrays.asList(address(a.getPort()), address(b.getPort())), 5000);
+		assertEquals(2, distributed.getWorkerCount());
+		assertArrayEquals(expected, distributed.calcFitness(solutions), 0f);
+		
+		//one worker dies, its work goes to the other. It is only dropped 
+		//once it is handed a chunk, which the live worker may beat it to
+		a.close();
+		for(int i = 0; i < 20 && distributed.getWorkerCount() > 1; i++) {
+			assertArrayEquals(expected, distributed.calcFitness(solutions), 0f);
+		}
+		assertEquals(1, distributed.getWorkerCount());
+		
+		//no workers left, evaluated locally
+		b.close();
+		assertArrayEquals(expected, distributed.calcFitness(solutions), 0f);
+		assertEquals(0, distributed.getWorkerCount());
+		
+		distributed.close();
+	}
+	
+	@Test
+	public void testSlowWorkerIsReassigned() throws Exception {
+		GridData grid = createGrid(200, 200, 2);
+		Rectangle region = new Rectangle(0, 0, 200, 200);
+		PSOFitnessPrefixSum local = new PSOFitnessPrefixSum(grid, region);
+		List<PSOSolution> solutions = createSolutions(region, 20);
+		
+		//accepts the region but never answers a batch
+		ServerSocket stalled = new ServerSocket(0);
+		Thread t = new Thread(() -> {
+			try(Socket s = stalled.accept()) {
+				DataInputStream in = new DataInputStream(new BufferedInputStream(s.getInputStream()));
+				DataOutputStream out = new DataOutputStream(s.getOutputStream());
+				in.readByte();
+				FitnessProtocol.readInitGrid(in, new int[1]);
+				out.writeByte(FitnessProtocol.READY);
+				out.flush();
+				while(in.read() >= 0) { }
+			} catch(IOException e) { }
+		});
+		t.setDaemon(true);
+		t.start();
+		
+		//the timeout is far longer than the test, the good worker takes over
+		//the stalled chunks once it runs out of its own
+		FitnessWorker good = new FitnessWorker(0).start();
+		PSOFitnessDistributed distributed = new PSOFitnessDistributed(
+				grid, region, FitnessType.BinaryRangePrefixSum, 
+				Arrays.asList(address(stalled.getLocalPort()), address(good.getPort())), 60000);
+		assertEquals(2, distributed.getWorkerCount());
+		
+		long start = System.nanoTime();
+		for(int k = 0; k < 3; k++) {
+			float[] actual = distributed.calcFitness(solutions);
+			for(int i = 0; i < actual.length; i++) {
+				assertEquals(local.calcFitness(solutions.get(i)), actual[i], 0f);
+			}
+			assertEquals(local.calcFitness(solutions.get(k)), distributed.calcFitness(solutions.get(k)), 0f);
+		}
+		assertTrue((System.nanoTime() - start) / 1e9 < 10);
+		
+		distributed.close();
+		good.close();
+		stalled.close();
+	}
+}
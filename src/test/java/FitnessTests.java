@@ -0,0 +1,345 @@
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
+import java.awt.image.WritableRaster;
+import java.io.File;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+import geoptimize.CandidateSites;
+import geoptimize.GridData;
+import geoptimize.TiledGridData;
+import geoptimize.pso.PSOSolution;
+import geoptimize.pso.fitness.DiscCoverageCache;
+import geoptimize.pso.fitness.PSOFitnessBinaryRange;
+import geoptimize.pso.fitness.PSOFitnessBitset;
+import geoptimize.pso.fitness.PSOFitnessCached;
+import geoptimize.pso.fitness.PSOFitnessCandidateSites;
+import geoptimize.pso.fitness.PSOFitnessFunction;
+import geoptimize.pso.fitness.PSOFitnessPrefixSum;
+import geoptimize.pso.fitness.PSOFitnessQuadtree;
+import geoptimize.pso.fitness.PSOFitnessTiled;
+import geoptimize.pso.fitness.ScratchArena;
+
+public class FitnessTests {
+	
+	/***
+	 * Sparse uint16 grid, similar to the population png
+	 */
+	private static GridData createGrid(int width, int height, long seed) {
+		return new GridData(createImage(width, height, seed));
+	}
+	
+	private static BufferedImage createImage(int width, int height, long seed) {
+		BufferedImage img = new BufferedImage(width, height, BufferedImage.TYPE_USHORT_GRAY);
+		WritableRaster raster = img.getRaster();
+		Random r = new Random(seed);
+		for(int y = 0; y < height; y++) {
+			for(int x = 0; x < width; x++) {
+				if(r.nextInt(4) == 0) raster.setSample(x, y, 0, r.nextInt(200));
+			}
+		}
+		return img;
+	}
+	
+	private static void assertSameFitness(PSOFitnessFunction expected, PSOFitnessFunction actual, Rectangle region) {
+		for(int i = 0; i < 200; i++) {
+			int nodes = 1 + i % 8;
+			int range = 1 + (i * 7) % 40;
+			PSOSolution s = PSOSolution.CreateRandom(nodes, range, region);
+			assertEquals(expected.calcFitness(s), actual.calcFitness(s), 0f);
+		}
+	}
+	
+	@Test
+	public void testPrefixSumMatchesBinaryRange() {
+		GridData grid = createGrid(300, 200, 1);
+		Rectangle region = new Rectangle(40, 30, 200, 150);
+		
+		assertSameFitness(
+				new PSOFitnessBinaryRange(grid, region), 
+				new PSOFitnessPrefixSum(grid, region),
+				region);
+	}
+	
+	@Test
+	public void testTiledMatchesBinaryRange() {
+		GridData grid = createGrid(300, 200, 4);
+		Rectangle region = new Rectangle(40, 30, 200, 150);
+		
+		//small tiles so whole tiles end up inside discs
+		PSOFitnessTiled tiled = new PSOFitnessTiled(grid, region, 8);
+		TiledGridData tiles = tiled.getTiles();
+		
+		double total = 0;
+		for(int t = 0; t < tiles.tilesX * tiles.tilesY; t++) total += tiles.getTileSum(t);
+		double expected = 0;
+		for(int y = region.y; y < region.getMaxY(); y++) {
+			for(int x = region.x; x < region.getMaxX(); x++) {
+				assertEquals(grid.get(x, y), tiles.get(x, y), 0f);
+				expected += grid.get(x, y);
+			}
+		}
+		assertEquals(expected, total, 0);
+		
+		assertSameFitness(new PSOFitnessBinaryRange(grid, region), tiled, region);
+		assertSameFitness(new PSOFitnessBinaryRange(grid, region), new PSOFitnessTiled(grid, region), region);
+	}
+	
+	@Test
+	public void testBitsetMatchesBinaryRange() {
+		GridData grid = createGrid(300, 200, 7);
+		
+		//width not a multiple of 64, so the last word of a row is partial
+		Rectangle region = new Rectangle(40, 30, 201, 150);
+		PSOFitnessFunction cells = new PSOFitnessBinaryRange(grid, region);
+		PSOFitnessFunction bitset = new PSOFitnessBitset(grid, region);
+		
+		assertSameFitness(cells, bitset, region);
+		
+		//a disc wider than the region
+		PSOSolution wide = PSOSolution.CreateRandom(2, 400, region);
+		assertEquals(cells.calcFitness(wide), bitset.calcFitness(wide), 0f);
+	}
+	
+	@Test
+	public void testQuadtreeMatchesBinaryRange() {
+		//not a power of two, so the tree hangs over the grid
+		GridData grid = createGrid(300, 200, 8);
+		Rectangle region = new Rectangle(37, 29, 203, 150);
+		PSOFitnessFunction cells = new PSOFitnessBinaryRange(grid, region);
+		PSOFitnessQuadtree quadtree = new PSOFitnessQuadtree(grid, region);
+		
+		assertSameFitness(cells, quadtree, region);
+		assertSame(grid.getQuadTree(), new PSOFitnessQuadtree(grid, region).getTree());
+		
+		Random r = new Random(8);
+		for(int i = 0; i < 200; i++) {
+			int x = region.x - 20 + r.nextInt(region.width + 40);
+			int y = region.y - 20 + r.nextInt(region.height + 40);
+			int range = 1 + r.nextInt(60);
+			assertEquals(cells.calcDiscSum(x, y, range), quadtree.calcDiscSum(x, y, range), 0);
+		}
+	}
+	
+	@Test
+	public void testCandidateSites() throws Exception {
+		GridData grid = createGrid(300, 200, 9);
+		Rectangle region = new Rectangle(40, 30, 200, 150);
+		
+		File csv = File.createTempFile("sites", ".csv");
+		csv.deleteOnExit();
+		Random r = new Random(9);
+		try(PrintWriter out = new PrintWriter(csv)) {
+			out.println("x,y");
+			for(int i = 0; i < 300; i++) {
+				out.println((region.x + r.nextInt(region.width)) + "," + (region.y + r.nextInt(region.height)));
+			}
+		}
+		CandidateSites sites = CandidateSites.load(csv);
+		assertEquals(300, sites.size());
+		
+		//nearest against a full search
+		for(int i = 0; i < 500; i++) {
+			int x = r.nextInt(400) - 50;
+			int y = r.nextInt(300) - 50;
+			long best = Long.MAX_VALUE;
+			for(int s = 0; s < sites.size(); s++) {
+				long dx = sites.getX(s) - x, dy = sites.getY(s) - y;
+				best = Math.min(best, dx * dx + dy * dy);
+			}
+			int s = sites.nearest(x, y);
+			long dx = sites.getX(s) - x, dy = sites.getY(s) - y;
+			assertEquals(best, dx * dx + dy * dy);
+		}
+		
+		PSOFitnessFunction cells = new PSOFitnessBinaryRange(grid, region);
+		PSOFitnessCandidateSites candidates = new PSOFitnessCandidateSites(grid, region, sites, 25);
+		for(int i = 0; i < 100; i++) {
+			PSOSolution s = new PSOSolution(1 + i % 6, 25);
+			for(int j = 0; j < s.size(); j++) {
+				int site = r.nextInt(sites.size());
+				s.setPosition(j, sites.getX(site), sites.getY(site));
+			}
+			assertEquals(cells.calcFitness(s), candidates.calcFitness(s), 0f);
+		}
+		
+		//off the sites falls back to discs
+		assertSameFitness(cells, candidates, region);
+	}
+	
+	@Test
+	public void testDiscCache() {
+		GridData grid = createGrid(300, 200, 5);
+		Rectangle region = new Rectangle(40, 30, 200, 150);
+		PSOFitnessFunction cells = new PSOFitnessBinaryRange(grid, region);
+		PSOFitnessFunction prefix = new PSOFitnessPrefixSum(grid, region);
+		
+		//small enough that entries get evicted
+		prefix.enableDiscCache(64);
+		DiscCoverageCache cache = prefix.getDiscCache();
+		
+		Random r = new Random(5);
+		for(int i = 0; i < 2000; i++) {
+			int x = region.x + r.nextInt(20);
+			int y = region.y + r.nextInt(20);
+			int range = 1 + r.nextInt(30);
+			assertEquals(cells.calcDiscSum(x, y, range), prefix.getDiscCoverage(x, y, range), 0);
+		}
+		assertEquals(2000, cache.getHits() + cache.getMisses());
+		assertTrue(cache.getHits() > 0);
+		assertTrue(cache.getMisses() > cache.getCapacity());
+	}
+	
+	@Test
+	public void testCachedFitness() throws Exception {
+		GridData grid = createGrid(300, 200, 6);
+		Rectangle region = new Rectangle(40, 30, 200, 150);
+		PSOFitnessFunction exact = new PSOFitnessPrefixSum(grid, region);
+		PSOFitnessCached cached = new PSOFitnessCached(new PSOFitnessPrefixSum(grid, region), 16);
+		
+		PSOSolution s = PSOSolution.CreateRandom(4, 20, region, new Random(6));
+		PSOSolution reversed = new PSOSolution(4, 20);
+		for(int i = 0; i < 4; i++) reversed.setPosition(3 - i, s.getX(i), s.getY(i));
+		PSOSolution moved = (PSOSolution)reversed.clone();
+		moved.setPosition(0, moved.getX(0) + 1, moved.getY(0));
+		
+		assertEquals(s.canonicalHash(), reversed.canonicalHash());
+		assertNotEquals(s.canonicalHash(), moved.canonicalHash());
+		
+		//several threads asking for the same solution, only one evaluates it
+		Thread[] threads = new Thread[8];
+		float[] results = new float[threads.length];
+		for(int t = 0; t < threads.length; t++) {
+			int index = t;
+			threads[t] = new Thread(() -> results[index] = cached.calcFitness(s));
+			threads[t].start();
+		}
+		for(Thread t : threads) t.join();
+		for(float f : results) assertEquals(exact.calcFitness(s), f, 0f);
+		assertEquals(1, cached.getMisses());
+		assertEquals(threads.length - 1, cached.getHits());
+		
+		assertEquals(exact.calcFitness(reversed), cached.calcFitness(reversed), 0f);
+		assertEquals(exact.calcFitness(moved), cached.calcFitness(moved), 0f);
+		assertEquals(2, cached.getMisses());
+		
+		//evicted once more than capacity other solutions are seen
+		for(int i = 0; i < 4 * cached.getCapacity(); i++) {
+			PSOSolution other = PSOSolution.CreateRandom(4, 20, region);
+			assertEquals(exact.calcFitness(other), cached.calcFitness(other), 0f);
+		}
+		long misses = cached.getMisses();
+		cached.calcFitness(s);
+		assertEquals(misses + 1, cached.getMisses());
+	}
+	
+	@Test
+	public void testBatchMatchesSingle() {
+		GridData grid = createGrid(300, 200, 2);
+		Rectangle region = new Rectangle(40, 30, 200, 150);
+		PSOFitnessBinaryRange function = new PSOFitnessBinaryRange(grid, region);
+		
+		List<PSOSolution> solutions = new ArrayList<PSOSolution>();
+		for(int i = 0; i < 50; i++) {
+			solutions.add(PSOSolution.CreateRandom(1 + i % 6, 5 + i % 30, region));
+		}
+		
+		float[] batch = function.calcFitness(solutions);
+		for(int i = 0; i < solutions.size(); i++) {
+			assertEquals(function.calcFitness(solutions.get(i)), batch[i], 0f);
+		}
+	}
+	
+	@Test
+	public void testRunIndexMatchesFullScan() {
+		BufferedImage img = createImage(300, 200, 3);
+		GridData grid = new GridData(img);
+		GridData indexed = new GridData(img, true);
+		Rectangle region = new Rectangle(40, 30, 200, 150);
+		
+		long populated = 0;
+		for(int y = region.y; y < region.getMaxY(); y++) {
+			for(int x = region.x; x < region.getMaxX(); x++) {
+				if(grid.get(x, y) != 0) populated++;
+			}
+		}
+		assertEquals(populated, indexed.countPopulated(region.x, region.y, (int)region.getMaxX(), (int)region.getMaxY()));
+		
+		assertSameFitness(
+				new PSOFitnessBinaryRange(grid, region), 
+				new PSOFitnessBinaryRange(indexed, region),
+				region);
+		
+		List<PSOSolution> solutions = new ArrayList<PSOSolution>();
+		for(int i = 0; i < 20; i++) {
+			solutions.add(PSOSolution.CreateRandom(1 + i % 6, 5 + i % 30, region));
+		}
+		float[] expected = new PSOFitnessBinaryRange(grid, region).calcFitness(solutions);
+		float[] actual = new PSOFitnessBinaryRange(indexed, region).calcFitness(solutions);
+		assertArrayEquals(expected, actual, 0f);
+	}
+	
+	@Test
+	public void testScratchArenaReuse() throws Exception {
+		ScratchArena arena = ScratchArena.get();
+		assertSame(arena, ScratchArena.get());
+		
+		int[] ints = arena.ints(0, 100);
+		long[] longs = arena.longs(1, 100);
+		assertSame(ints, arena.ints(0, 100));
+		assertSame(ints, arena.ints(0, 50));
+		assertSame(longs, arena.longs(1, 100));
+		//growing at least doubles, so a slowly growing request doesn't reallocate every time
+		int[] grown = arena.ints(0, ints.length + 1);
+		assertTrue(grown.length >= 2 * ints.length);
+		assertSame(grown, arena.ints(0, ints.length + 1));
+		
+		//each generation starts with nothing marked
+		int first = arena.beginMarks(64);
+		int[] marks = arena.getMarks();
+		marks[3] = first;
+		int second = arena.beginMarks(64);
+		assertSame(marks, arena.getMarks());
+		assertNotEquals(first, second);
+		for(int i = 0; i < 64; i++) assertNotEquals(second, marks[i]);
+		
+		//other threads have their own
+		ScratchArena[] other = new ScratchArena[1];
+		Thread t = new Thread(() -> other[0] = ScratchArena.get());
+		t.start();
+		t.join();
+		assertNotSame(arena, other[0]);
+		
+		//after the first evaluation, repeated evaluations of the same size use the same buffers
+		GridData grid = createGrid(200, 200, 4);
+		Rectangle region = new Rectangle(0, 0, 200, 200);
+		PSOFitnessFunction[] functions = { 
+				new PSOFitnessBinaryRange(grid, region), new PSOFitnessBitset(grid, region), new PSOFitnessQuadtree(grid, region) };
+		List<PSOSolution> solutions = new ArrayList<PSOSolution>();
+		for(int i = 0; i < 20; i++) solutions.add(PSOSolution.CreateRandom(8, 40, region));
+		for(PSOFitnessFunction f : functions) f.calcFitness(solutions);
+		
+		Object[] buffers = new Object[3 * ScratchArena.SLOTS + 1];
+		for(int slot = 0; slot < ScratchArena.SLOTS; slot++) {
+			buffers[3 * slot] = arena.ints(slot, 0);
+			buffers[3 * slot + 1] = arena.longs(slot, 0);
+			buffers[3 * slot + 2] = arena.rows(slot, 0);
+		}
+		buffers[buffers.length - 1] = arena.getMarks();
+		
+		for(int repeat = 0; repeat < 10; repeat++) {
+			for(PSOFitnessFunction f : functions) f.calcFitness(solutions);
+		}
+		for(int slot = 0; slot < ScratchArena.SLOTS; slot++) {
+			assertSame(buffers[3 * slot], arena.ints(slot, 0));
+			assertSame(buffers[3 * slot + 1], arena.longs(slot, 0));
+			assertSame(buffers[3 * slot + 2], arena.rows(slot, 0));
+		}
+		assertSame(buffers[buffers.length - 1], arena.getMarks());
+	}
+}
@@ -0,0 +1,246 @@
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
+import java.awt.image.WritableRaster;
+import java.io.File;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.util.Collections;
+import java.util.Random;
+
+import javax.imageio.ImageIO;
+
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+import geoptimize.CandidateSites;
+import geoptimize.GridData;
+import geoptimize.GridDataCache;
+import geoptimize.GridFile;
+import geoptimize.RegionLoader;
+import geoptimize.pso.PSOPyramidSimulation;
+import geoptimize.pso.PSOSettings;
+import geoptimize.pso.PSOSolution;
+import geoptimize.pso.fitness.PSOFitnessPrefixSum;
+import geoptimize.pso.stopping.StoppingCriterion;
+
+public class GridDataTests {
+	
+	private static BufferedImage createImage(int width, int height, long seed) {
+		BufferedImage img = new BufferedImage(width, height, BufferedImage.TYPE_USHORT_GRAY);
+		WritableRaster raster = img.getRaster();
+		Random r = new Random(seed);
+		for(int y = 0; y < height; y++) {
+			for(int x = 0; x < width; x++) {
+				if(r.nextInt(4) == 0) raster.setSample(x, y, 0, r.nextInt(200));
+			}
+		}
+		return img;
+	}
+	
+	private static double sum(GridData g) {
+		double total = 0;
+		for(int y = 0; y < g.height; y++) {
+			for(int x = 0; x < g.width; x++) {
+				total += g.get(x, y);
+			}
+		}
+		return total;
+	}
+	
+	@Test
+	public void testPyramidPreservesPopulation() {
+		GridData grid = new GridData(createImage(301, 199, 1), true);
+		double total = sum(grid);
+		
+		assertSame(grid, grid.getLevel(0));
+		for(int level = 1; level <= 4; level++) {
+			GridData g = grid.getLevel(level);
+			assertEquals((301 + (1 << level) - 1) >> level, g.width);
+			assertEquals((199 + (1 << level) - 1) >> level, g.height);
+			assertEquals(total, sum(g), 0);
+			assertTrue(g.hasRunIndex());
+		}
+		assertSame(grid.getLevel(3), grid.getLevel(3));
+		
+		//cell (1, 2) of level 1 is the sum of the 2x2 block at (2, 4)
+		float block = grid.get(2, 4) + grid.get(3, 4) + grid.get(2, 5) + grid.get(3, 5);
+		assertEquals(block, grid.getLevel(1).get(1, 2), 0f);
+	}
+	
+	@Test
+	public void testCoarseToFineEndsAtFullResolution() {
+		GridData grid = new GridData(createImage(320, 240, 2), true);
+		PSOSettings settings = new PSOSettings();
+		settings.nodes = 3;
+		settings.range = 24;
+		settings.particles = 10;
+		settings.region = new Rectangle(16, 16, 280, 200);
+		
+		assertEquals(new Rectangle(2, 2, 35, 25), PSOPyramidSimulation.regionAt(settings.region, 3));
+		assertEquals(3, PSOPyramidSimulation.rangeAt(24, 3));
+		
+		PSOPyramidSimulation sim = new PSOPyramidSimulation(settings, grid, 3);
+		assertEquals(3, sim.getLevel());
+		sim.run(5, Collections.<StoppingCriterion>emptyList());
+		assertEquals(0, sim.getLevel());
+		assertEquals(20, sim.getSimulation().getCurrentIteration());
+		
+		//global best was re-evaluated on the full resolution grid
+		PSOFitnessPrefixSum full = new PSOFitnessPrefixSum(grid, settings.region);
+		assertEquals(full.calcFitness(sim.getSimulation().getGlobalBest()), sim.getSimulation().getGlobalBest().getFitness(), 0f);
+		assertEquals(24, sim.getSimulation().getGlobalBest().getRange());
+		sim.shutdown();
+		
+		//a full resolution seed is moved onto the coarse grid
+		PSOSolution seed = new PSOSolution(3, 24);
+		seed.setPosition(0, 16, 16);
+		seed.setPosition(1, 100, 60);
+		seed.setPosition(2, 295, 215);
+		settings.seedSolution = seed;
+		sim = new PSOPyramidSimulation(settings, grid, 3);
+		PSOSolution coarse = sim.getSimulation().getParticles().get(0).getLocalBest();
+		assertEquals(3, coarse.getRange());
+		assertEquals(2, coarse.getX(0));
+		assertEquals(7, coarse.getY(1));
+		assertEquals(36, coarse.getX(2));
+		assertEquals(26, coarse.getY(2));
+		assertFalse(Float.isInfinite(coarse.getFitness()));
+		sim.shutdown();
+		settings.seedSolution = null;
+		
+		//sites and workers can not change grids, so they are refused up front
+		settings.sites = new CandidateSites(new int[] { 20, 40 }, new int[] { 20, 40 });
+		try {
+			new PSOPyramidSimulation(settings, grid, 3);
+			fail("Sites accepted");
+		} catch(IllegalArgumentException e) {
+		}
+		settings.sites = null;
+		settings.workers = Collections.singletonList(InetSocketAddress.createUnresolved("localhost", 1));
+		try {
+			new PSOPyramidSimulation(settings, grid, 3);
+			fail("Workers accepted");
+		} catch(IllegalArgumentException e) {
+		}
+	}
+	@Test
+	public void testGridCacheSharesAndReloads() throws IOException {
+		File a = File.createTempFile("grid-a", ".png");
+		File b = File.createTempFile("grid-b", ".png");
+		a.deleteOnExit();
+		b.deleteOnExit();
+		GridFile.cacheFileFor(a).deleteOnExit();
+		GridFile.cacheFileFor(b).deleteOnExit();
+		ImageIO.write(createImage(64, 48, 1), "png", a);
+		ImageIO.write(createImage(64, 48, 2), "png", b);
+		
+		GridDataCache cache = new GridDataCache(1L << 30);
+		GridData first = cache.get(a);
+		assertSame(first, cache.get(a));
+		//the preprocessed copy goes in the cache folder, not next to the image
+		assertTrue(GridFile.cacheFileFor(a).isFile());
+		assertEquals(GridFile.getCacheDirectory(), GridFile.cacheFileFor(a).getParentFile());
+		assertFalse(new File(a.getPath() + ".grid").exists());
+		assertEquals(1, cache.getHits());
+		assertEquals(1, cache.getMisses());
+		
+		//a changed file is loaded again
+		ImageIO.write(createImage(64, 48, 3), "png", a);
+		a.setLastModified(a.lastModified() + 2000);
+		GridData changed = cache.get(a);
+		assertNotSame(first, changed);
+		assertEquals(sum(new GridData(createImage(64, 48, 3), true)), sum(changed), 0);
+		
+		//over budget, the least recently used grid goes but the newest stays
+		cache.setBudgetBytes(changed.getMemoryBytes());
+		assertEquals(1, cache.size());
+		GridData other = cache.get(b);
+		assertEquals(1, cache.size());
+		assertSame(other, cache.get(b));
+		assertNotSame(changed, cache.get(a));
+	}
+	
+	@Test
+	public void testGridCacheConcurrentGets() throws Exception {
+		File f = File.createTempFile("grid-shared", ".png");
+		f.deleteOnExit();
+		GridFile.cacheFileFor(f).deleteOnExit();
+		ImageIO.write(createImage(400, 300, 4), "png", f);
+		
+		//every thread gets the same grid from a single load, waiting counts as a hit
+		GridDataCache cache = new GridDataCache(1L << 30);
+		cache.setUseGridFiles(false);
+		GridData[] grids = new GridData[8];
+		Thread[] threads = new Thread[grids.length];
+		for(int i = 0; i < threads.length; i++) {
+			int index = i;
+			threads[i] = new Thread(() -> {
+				try {
+					grids[index] = cache.get(f);
+				} catch(IOException e) {
+					throw new RuntimeException(e);
+				}
+			});
+		}
+		for(Thread t : threads) t.start();
+		for(Thread t : threads) t.join();
+		
+		for(GridData g : grids) assertSame(grids[0], g);
+		assertEquals(1, cache.getMisses());
+		assertEquals(threads.length - 1, cache.getHits());
+	}
+	
+	@Test
+	public void testGridFileRoundTrip() throws IOException {
+		File f = File.createTempFile("grid", ".grid");
+		f.deleteOnExit();
+		
+		GridData counts = new GridData(createImage(37, 21, 4), false);
+		GridFile.write(f, counts, 100, 200);
+		GridData read = GridFile.read(f, 100, 200);
+		assertEquals(counts.width, read.width);
+		assertEquals(counts.height, read.height);
+		assertArrayEquals(counts.data, read.data, 0);
+		assertEquals(GridFile.HEADER_BYTES + 2 * counts.size, f.length());
+		
+		//fractional samples are kept as floats
+		float[] data = new float[6];
+		for(int i = 0; i < data.length; i++) data[i] = i * 0.5f - 1;
+		GridFile.write(f, new GridData(3, 2, data), 100, 200);
+		assertArrayEquals(data, GridFile.read(f, 100, 200).data, 0);
+		
+		//different source stamps mean a stale file
+		assertNull(GridFile.read(f, 100, 201));
+		assertNull(GridFile.read(f, 99, 200));
+	}
+	
+	@Test
+	public void testRegionLoaderMatchesWholeGrid() throws IOException {
+		File f = File.createTempFile("grid-region", ".png");
+		f.deleteOnExit();
+		GridFile.cacheFileFor(f).deleteOnExit();
+		BufferedImage img = createImage(90, 70, 5);
+		ImageIO.write(img, "png", f);
+		GridData whole = new GridData(img, true);
+		
+		//decoded from the image, then read from the grid file
+		for(int pass = 0; pass < 2; pass++) {
+			GridData part = RegionLoader.load(f, new Rectangle(60, 10, 20, 30), 15);
+			
+			//margin is clipped at the right edge of the image
+			assertEquals(45, part.originX);
+			assertEquals(0, part.originY);
+			assertEquals(45, part.width);
+			assertEquals(55, part.height);
+			assertTrue(part.hasRunIndex());
+			for(int y = 0; y < part.height; y++) {
+				for(int x = 0; x < part.width; x++) {
+					assertEquals(whole.get(x + 45, y), part.get(x, y), 0);
+				}
+			}
+			assertEquals(new Rectangle(15, 10, 20, 30), RegionLoader.toGrid(part, new Rectangle(60, 10, 20, 30)));
+			
+			GridFile.writeCached(f, whole);
+		}
+	}
+}
@@ -0,0 +1,213 @@
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
+import java.awt.image.WritableRaster;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Properties;
+import java.util.Random;
+import java.util.Set;
+
+import javax.imageio.ImageIO;
+
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+import geoptimize.GridData;
+import geoptimize.GridFile;
+import geoptimize.HeadlessProgram;
+import geoptimize.ParameterSweep;
+import geoptimize.pso.PSOSettings;
+import geoptimize.pso.execution.ExecutionMode;
+import geoptimize.pso.fitness.FitnessType;
+
+public class HeadlessTests {
+	
+	private static File createGridFile(int width, int height, long seed) throws IOException {
+		BufferedImage img = new BufferedImage(width, height, BufferedImage.TYPE_USHORT_GRAY);
+		WritableRaster raster = img.getRaster();
+		Random r = new Random(seed);
+		for(int y = 0; y < height; y++) {
+			for(int x = 0; x < width; x++) {
+				if(r.nextInt(4) == 0) raster.setSample(x, y, 0, r.nextInt(200));
+			}
+		}
+		File f = File.createTempFile("headless", ".png");
+		f.deleteOnExit();
+		GridFile.cacheFileFor(f).deleteOnExit();
+		ImageIO.write(img, "png", f);
+		return f;
+	}
+	
+	@Test
+	public void testArgumentsOverrideConfig() throws IOException {
+		File config = File.createTempFile("headless", ".properties");
+		config.deleteOnExit();
+		try(FileWriter w = new FileWriter(config)) {
+			w.write("nodes=7\nrange=30\nfitness=BinaryRangePrefixSum\n");
+		}
+		
+		Properties options = HeadlessProgram.parseArguments(new String[] {
+				"map.png", "-config", config.getPath(), "-range", "40", "-region", "10,20,30,40", "-seed", "3" });
+		assertEquals("map.png", options.getProperty("grid"));
+		assertEquals("7", options.getProperty("nodes"));
+		assertEquals("40", options.getProperty("range"));
+		
+		GridData grid = new GridData(100, 100, new float[100 * 100]);
+		PSOSettings s = HeadlessProgram.createSettings(options, grid);
+		assertEquals(7, s.nodes);
+		assertEquals(40, s.range);
+		assertEquals(FitnessType.BinaryRangePrefixSum, s.fitnessType);
+		assertEquals(new Rectangle(10, 20, 30, 40), s.region);
+		assertEquals(Long.valueOf(3), s.seed);
+		//anything not given keeps the default
+		assertEquals(new PSOSettings().executionMode, s.executionMode);
+		
+		//a grid loaded for a region moves the region into its coordinates
+		grid.originX = 5;
+		grid.originY = 10;
+		assertEquals(new Rectangle(5, 10, 30, 40), HeadlessProgram.createSettings(options, grid).region);
+		
+		options = HeadlessProgram.parseArguments(new String[0]);
+		assertEquals(new Rectangle(0, 0, 100, 100), HeadlessProgram.createSettings(options, new GridData(100, 100, new float[100 * 100])).region);
+		
+		try {
+			HeadlessProgram.parseArguments(new String[] { "map.png", "-nodes" });
+			fail("Missing value accepted");
+		} catch(IllegalArgumentException e) {
+		}
+	}
+	
+	@Test
+	public void testJSONAndCSVOutput() throws IOException {
+		File grid = createGridFile(120, 90, 1);
+		File json = File.createTempFile("headless", ".json");
+		File csv = File.createTempFile("headless", ".csv");
+		json.deleteOnExit();
+		csv.deleteOnExit();
+		String[] args = { grid.getPath(), "-nodes", "3", "-range", "10", "-particles", "6", "-iterations", "5",
+				"-seed", "1", "-execution", ExecutionMode.Sequential.name(), "-region", "10,10,100,70" };
+		
+		HeadlessProgram.main(concat(args, "-output", json.getPath()));
+		String text = new String(Files.readAllBytes(json.toPath()), StandardCharsets.UTF_8);
+		assertTrue(text.trim().startsWith("{") && text.trim().endsWith("}"));
+		assertTrue(text.contains("\"region\": [10, 10, 100, 70]"));
+		assertTrue(text.contains("\"iterations\": 5,"));
+		assertEquals(3, count(text, "\"range\": 10}"));
+		assertEquals(6, count(text, "{\"iteration\": "));
+		assertFalse(text.contains("NaN"));
+		assertFalse(text.contains("Infinity"));
+		
+		HeadlessProgram.main(concat(args, "-output", csv.getPath()));
+		List<String> lines = Files.readAllLines(csv.toPath(), StandardCharsets.UTF_8);
+		assertTrue(lines.contains("# region=10,10,100,70"));
+		int nodes = lines.indexOf("node,x,y,range");
+		int history = lines.indexOf("iteration,fitness,seconds");
+		assertEquals(3, history - nodes - 2);
+		assertEquals(6, lines.size() - history - 1);
+		for(int i = nodes + 1; i < nodes + 4; i++) {
+			String[] parts = lines.get(i).split(",");
+			int x = Integer.parseInt(parts[1]), y = Integer.parseInt(parts[2]);
+			assertTrue(x >= 10 && x < 110 && y >= 10 && y < 80);
+		}
+		
+		//the same seed gives the same best fitness in both formats
+		String best = lines.get(history + 6).split(",")[1];
+		assertTrue(text.contains("\"fitness\": " + best + ","));
+	}
+	
+	@Test
+	public void testJSONNumbers() {
+		assertEquals("null", HeadlessProgram.jsonNumber(Float.NaN));
+		assertEquals("null", HeadlessProgram.jsonNumber(Float.NEGATIVE_INFINITY));
+		assertEquals("1.5", HeadlessProgram.jsonNumber(1.5f));
+	}
+	
+	@Test
+	public void testSweepConfigurations() {
+		Properties options = new Properties();
+		options.setProperty("grid", "map.png");
+		options.setProperty("inertia", "0.5, 0.7,0.9");
+		options.setProperty("nodes", "3,4");
+		options.setProperty("iterations", "10");
+		
+		List<Properties> configurations = ParameterSweep.gridConfigurations(options);
+		assertEquals(6, configurations.size());
+		Set<String> seen = new HashSet<String>();
+		for(Properties c : configurations) {
+			assertEquals("map.png", c.getProperty("grid"));
+			assertEquals("10", c.getProperty("iterations"));
+			seen.add(c.getProperty("inertia") + "/" + c.getProperty("nodes"));
+		}
+		for(String inertia : new String[] { "0.5", "0.7", "0.9" }) {
+			assertTrue(seen.contains(inertia + "/3"));
+			assertTrue(seen.contains(inertia + "/4"));
+		}
+		//the options are not changed
+		assertEquals("3,4", options.getProperty("nodes"));
+		
+		options.setProperty("particles", "10:20");
+		for(Properties c : ParameterSweep.randomConfigurations(options, 50, new Random(1))) {
+			int particles = Integer.parseInt(c.getProperty("particles"));
+			assertTrue(particles >= 10 && particles <= 20);
+			assertTrue(c.getProperty("nodes").equals("3") || c.getProperty("nodes").equals("4"));
+		}
+	}
+	
+	@Test
+	public void testSweepStatistics() throws IOException, InterruptedException {
+		assertEquals(2.5, ParameterSweep.mean(new double[] { 1, 2, 3, 4 }), 1e-12);
+		assertEquals(5.0 / 3, ParameterSweep.variance(new double[] { 1, 2, 3, 4 }), 1e-12);
+		assertEquals(0, ParameterSweep.variance(new double[] { 7 }), 0);
+		assertEquals(0, ParameterSweep.mean(new double[0]), 0);
+		
+		File grid = createGridFile(80, 60, 2);
+		File runs = File.createTempFile("sweep", ".csv");
+		File summary = File.createTempFile("summary", ".csv");
+		runs.deleteOnExit();
+		summary.deleteOnExit();
+		ParameterSweep.main(new String[] { grid.getPath(), "-inertia", "0.5,0.9", "-nodes", "2", "-range", "8", 
+				"-particles", "4", "-iterations", "3", "-repeats", "3", "-threads", "2", 
+				"-output", runs.getPath(), "-summary", summary.getPath() });
+		
+		//fitness of every run per configuration, from the runs file
+		List<String> lines = Files.readAllLines(runs.toPath(), StandardCharsets.UTF_8);
+		assertEquals(1 + 2 * 3, lines.size());
+		List<String> header = Arrays.asList(lines.get(0).split(","));
+		double[][] fitness = new double[2][3];
+		int[] n = new int[2];
+		for(String line : lines.subList(1, lines.size())) {
+			String[] parts = line.split(",");
+			int c = Integer.parseInt(parts[0]);
+			fitness[c][n[c]++] = Double.parseDouble(parts[header.indexOf("fitness")]);
+		}
+		
+		lines = Files.readAllLines(summary.toPath(), StandardCharsets.UTF_8);
+		assertEquals(3, lines.size());
+		header = Arrays.asList(lines.get(0).split(","));
+		for(int c = 0; c < 2; c++) {
+			String[] parts = lines.get(c + 1).split(",");
+			assertEquals(3, Integer.parseInt(parts[header.indexOf("runs")]));
+			assertEquals(ParameterSweep.mean(fitness[c]), Double.parseDouble(parts[header.indexOf("fitness mean")]), 1e-3);
+			assertEquals(ParameterSweep.variance(fitness[c]), Double.parseDouble(parts[header.indexOf("fitness variance")]), 1e-3);
+		}
+	}
+	
+	private static String[] concat(String[] a, String... b) {
+		String[] all = new String[a.length + b.length];
+		System.arraycopy(a, 0, all, 0, a.length);
+		System.arraycopy(b, 0, all, a.length, b.length);
+		return all;
+	}
+	
+	private static int count(String text, String s) {
+		int n = 0;
+		for(int i = text.indexOf(s); i >= 0; i = text.indexOf(s, i + 1)) n++;
+		return n;
+	}
+}
@@ -1,10 +1,36 @@
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
+import java.awt.image.WritableRaster;
 import java.io.File;
 import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicIntegerArray;
 
 import org.junit.Test;
 import static org.junit.Assert.*;
 
+import geoptimize.CandidateSites;
+import geoptimize.GridData;
 import geoptimize.SimulationManager;
+import geoptimize.pso.Distribution;
+import geoptimize.pso.GreedyOptimizer;
+import geoptimize.pso.MigrationTopology;
+import geoptimize.pso.PSOIslandSimulation;
+import geoptimize.pso.PSOParticle;
+import geoptimize.pso.PSOSettings;
+import geoptimize.pso.PSOSimulation;
+import geoptimize.pso.PSOSolution;
+import geoptimize.pso.PSOStatistics;
+import geoptimize.pso.execution.ExecutionMode;
+import geoptimize.pso.execution.PSOExecutor;
+import geoptimize.pso.execution.WorkerPoolExecutor;
+import geoptimize.pso.fitness.FitnessType;
+import geoptimize.pso.fitness.PSOFitnessFunction;
+import geoptimize.pso.stopping.StagnationCriterion;
+import geoptimize.pso.stopping.StoppingCriterion;
+import geoptimize.pso.stopping.TargetFitnessCriterion;
 
 public class SimulationTests {
 	@Test
@@ -19,4 +45,359 @@ public class SimulationTests {
 			assertNotNull("Image did not load.", m.getPopulationGrid());
 		}
 	}
+	
+	private static BufferedImage createImage(int width, int height, long seed) {
+		BufferedImage img = new BufferedImage(width, height, BufferedImage.TYPE_USHORT_GRAY);
+		WritableRaster raster = img.getRaster();
+		Random r = new Random(seed);
+		for(int y = 0; y < height; y++) {
+			for(int x = 0; x < width; x++) {
+				if(r.nextInt(4) == 0) raster.setSample(x, y, 0, r.nextInt(200));
+			}
+		}
+		return img;
+	}
+	
+	private static void assertGlobalBestImproves(PSOSimulation sim, int steps) {
+		float previous = sim.getGlobalBest().getFitness();
+		for(int i = 0; i < steps; i++) {
+			sim.step();
+			
+			float best = sim.getGlobalBest().getFitness();
+			assertTrue(best >= previous);
+			for(PSOParticle p : sim.getParticles()) {
+				assertTrue(p.getLocalBest().getFitness() <= best);
+			}
+			previous = best;
+		}
+		assertEquals(steps, sim.getCurrentIteration());
+	}
+	
+	@Test
+	public void testSimulationStep() {
+		BufferedImage img = createImage(300, 200, 1);
+		Rectangle region = new Rectangle(20, 20, 250, 150);
+		
+		for(FitnessType type : new FitnessType[] { FitnessType.BinaryRange, FitnessType.BinaryRangePrefixSum }) {
+			PSOSimulation sim = new PSOSimulation(4, 20, 0.3f, 0.1f, 0.9f, 12, region, img, type);
+			assertEquals(12, sim.getParticles().size());
+			assertEquals(4, sim.getGlobalBest().size());
+			assertGlobalBestImproves(sim, 20);
+		}
+	}
+	
+	@Test
+	public void testExecutorsVisitEveryParticleOnce() {
+		for(ExecutionMode mode : ExecutionMode.values()) {
+			try(PSOExecutor executor = PSOExecutor.create(mode)) {
+				for(int n : new int[] { 0, 1, 7, 100 }) {
+					AtomicIntegerArray visits = new AtomicIntegerArray(n);
+					executor.forRange(n, (start, end) -> {
+						for(int i = start; i < end; i++) visits.incrementAndGet(i);
+					});
+					for(int i = 0; i < n; i++) {
+						assertEquals(mode + " index " + i, 1, visits.get(i));
+					}
+				}
+				assertNestedRangeFinishes(executor);
+			}
+		}
+		//with worker threads even on a single core machine
+		try(PSOExecutor executor = new WorkerPoolExecutor(4)) {
+			assertNestedRangeFinishes(executor);
+		}
+	}
+	
+	/***
+	 * A range started from inside a task must not wait on itself
+	 */
+	private static void assertNestedRangeFinishes(PSOExecutor executor) {
+		AtomicIntegerArray nested = new AtomicIntegerArray(8 * 8);
+		executor.forRange(8, (start, end) -> {
+			for(int i = start; i < end; i++) {
+				int outer = i;
+				executor.forRange(8, (s, e) -> {
+					for(int j = s; j < e; j++) nested.incrementAndGet(outer * 8 + j);
+				});
+			}
+		});
+		for(int i = 0; i < 8 * 8; i++) assertEquals("nested " + i, 1, nested.get(i));
+	}
+	
+	@Test
+	public void testSimulationExecutionModes() {
+		BufferedImage img = createImage(300, 200, 2);
+		Rectangle region = new Rectangle(20, 20, 250, 150);
+		
+		for(ExecutionMode mode : ExecutionMode.values()) {
+			PSOSimulation sim = new PSOSimulation(3, 15, 0.3f, 0.1f, 0.9f, 16, region, img, FitnessType.BinaryRangePrefixSum);
+			sim.setExecutionMode(mode);
+			assertGlobalBestImproves(sim, 10);
+			sim.shutdown();
+		}
+	}
+	
+	@Test
+	public void testSplitBatchMatchesPerParticle() {
+		GridData data = new GridData(createImage(1000, 800, 9), true);
+		PSOSettings settings = new PSOSettings();
+		settings.nodes = 5;
+		settings.range = 40;
+		settings.particles = 48;
+		settings.region = new Rectangle(0, 0, 1000, 800);
+		settings.fitnessType = FitnessType.BinaryRange;
+		settings.executionMode = ExecutionMode.WorkerPool;
+		settings.seed = 9L;
+		
+		PSOSimulation sim = new PSOSimulation(settings, data);
+		PSOFitnessFunction f = sim.getFitnessFunction();
+		assertTrue(f.supportsBatch());
+		//nothing reads disc sums without pruning
+		assertNull(f.getDiscCache());
+		
+		//the per-thread batches give the same fitness as single evaluations
+		for(int i = 0; i < 3; i++) {
+			sim.step();
+			for(PSOParticle p : sim.getParticles()) {
+				assertEquals(f.calcFitness(p.getCurrent()), p.getCurrent().getFitness(), 0f);
+			}
+		}
+		
+		//and a step is not slower than scoring every particle on its own in parallel
+		try(PSOExecutor executor = PSOExecutor.create(ExecutionMode.WorkerPool)) {
+			long batch = Long.MAX_VALUE, single = Long.MAX_VALUE;
+			for(int repeat = 0; repeat < 5; repeat++) {
+				long start = System.nanoTime();
+				sim.step();
+				batch = Math.min(batch, System.nanoTime() - start);
+				
+				start = System.nanoTime();
+				executor.forRange(settings.particles, (first, last) -> {
+					for(int i = first; i < last; i++) f.calcFitness(sim.getParticles().get(i).getCurrent());
+				});
+				single = Math.min(single, System.nanoTime() - start);
+			}
+			System.out.println(String.format("Batch step %.2fms, per-particle evaluation %.2fms", batch / 1e6, single / 1e6));
+			assertTrue(batch <= single * 1.25);
+		}
+		sim.shutdown();
+	}
+	
+	@Test
+	public void testAsyncRun() {
+		BufferedImage img = createImage(300, 200, 3);
+		Rectangle region = new Rectangle(20, 20, 250, 150);
+		
+		for(ExecutionMode mode : ExecutionMode.values()) {
+			PSOSimulation sim = new PSOSimulation(3, 15, 0.3f, 0.1f, 0.9f, 16, region, img, FitnessType.BinaryRangePrefixSum);
+			sim.setExecutionMode(mode);
+			long[] before = new long[16];
+			for(int i = 0; i < 16; i++) before[i] = sim.getParticles().get(i).getCurrent().canonicalHash();
+			
+			float initial = sim.getGlobalBest().getFitness();
+			PSOStatistics run = sim.runAsync(16 * 20);
+			
+			//every particle moved, not just the ones the first worker got to
+			for(int i = 0; i < 16; i++) {
+				assertNotEquals(mode + " particle " + i, before[i], sim.getParticles().get(i).getCurrent().canonicalHash());
+			}
+			assertEquals(16 * 20, run.getEvaluations());
+			assertEquals(20, sim.getCurrentIteration());
+			assertTrue(sim.getGlobalBest().getFitness() >= initial);
+			for(PSOParticle p : sim.getParticles()) {
+				assertTrue(p.getLocalBest().getFitness() <= sim.getGlobalBest().getFitness());
+			}
+			sim.shutdown();
+		}
+	}
+	
+	@Test
+	public void testIslandMigration() {
+		GridData data = new GridData(createImage(300, 200, 4), true);
+		PSOSettings settings = new PSOSettings();
+		settings.nodes = 3;
+		settings.range = 15;
+		settings.particles = 8;
+		settings.region = new Rectangle(20, 20, 250, 150);
+		
+		for(MigrationTopology topology : MigrationTopology.values()) {
+			PSOIslandSimulation sim = new PSOIslandSimulation(settings, data, 4, 5, topology);
+			long start = System.nanoTime();
+			sim.run(12);
+			long wall = System.nanoTime() - start;
+			assertEquals(12, sim.getCurrentIteration());
+			assertEquals(4 * 8 * 12, sim.getStatistics().getEvaluations());
+			//time is the run's wall clock, not the islands' times added up
+			long elapsed = sim.getStatistics().getElapsedNanos();
+			assertTrue(elapsed > 0 && elapsed <= wall);
+			
+			//after a migration every island has at least the best it was sent
+			sim.migrate();
+			float best = sim.getGlobalBest().getFitness();
+			if(topology == MigrationTopology.FullyConnected) {
+				for(PSOSimulation island : sim.getIslands()) {
+					assertEquals(best, island.getGlobalBest().getFitness(), 0f);
+				}
+			}
+			sim.shutdown();
+		}
+		
+		//seeded islands are different swarms, and the settings are left alone
+		settings.seed = 11L;
+		settings.executionMode = ExecutionMode.WorkerPool;
+		PSOIslandSimulation sim = new PSOIslandSimulation(settings, data, 2, 5, MigrationTopology.Ring);
+		PSOSolution a = sim.getIslands().get(0).getParticles().get(0).getCurrent();
+		PSOSolution b = sim.getIslands().get(1).getParticles().get(0).getCurrent();
+		assertNotEquals(a.canonicalHash(), b.canonicalHash());
+		assertEquals(ExecutionMode.WorkerPool, settings.executionMode);
+		assertEquals(11L, (long)settings.seed);
+		sim.shutdown();
+	}
+	
+	@Test
+	public void testStoppingCriteria() {
+		BufferedImage img = createImage(300, 200, 5);
+		Rectangle region = new Rectangle(20, 20, 250, 150);
+		
+		PSOSimulation sim = new PSOSimulation(2, 15, 0.3f, 0.1f, 0.5f, 8, region, img, FitnessType.BinaryRangePrefixSum);
+		String reason = sim.run(30, Collections.<StoppingCriterion>emptyList());
+		assertEquals(30, sim.getCurrentIteration());
+		assertTrue(reason.startsWith("Iteration limit"));
+		
+		//already reached, stops after one step
+		float target = sim.getGlobalBest().getFitness();
+		reason = sim.run(1000, Arrays.<StoppingCriterion>asList(new TargetFitnessCriterion(target)));
+		assertEquals(31, sim.getCurrentIteration());
+		assertTrue(reason.startsWith("Target fitness"));
+		
+		reason = sim.run(100000, Arrays.<StoppingCriterion>asList(new StagnationCriterion(5)));
+		assertTrue(sim.getCurrentIteration() < 100000);
+		assertTrue(reason.startsWith("No improvement"));
+		assertEquals(reason, sim.getStopReason());
+		sim.shutdown();
+	}
+	
+	@Test
+	public void testUpperBoundPruning() {
+		GridData data = new GridData(createImage(300, 200, 6), true);
+		PSOSettings settings = new PSOSettings();
+		settings.nodes = 3;
+		settings.range = 15;
+		settings.particles = 16;
+		settings.region = new Rectangle(20, 20, 250, 150);
+		settings.upperBoundPruning = true;
+		PSOFitnessFunction exact = PSOFitnessFunction.create(FitnessType.BinaryRange, data, settings.region);
+		
+		//per particle (PrefixSum) and batched (BinaryRange) evaluation both prune
+		for(FitnessType type : new FitnessType[] { FitnessType.BinaryRangePrefixSum, FitnessType.BinaryRange }) {
+			for(ExecutionMode mode : new ExecutionMode[] { ExecutionMode.Sequential, ExecutionMode.WorkerPool }) {
+				settings.fitnessType = type;
+				settings.executionMode = mode;
+				PSOSimulation sim = new PSOSimulation(settings, data);
+				//pruning reads disc sums, so it gets a disc cache
+				assertNotNull(sim.getFitnessFunction().getDiscCache());
+				for(int i = 0; i < 50; i++) sim.step();
+				
+				//only exact evaluations are counted
+				PSOStatistics stats = sim.getStatistics();
+				assertTrue(type + " " + mode, stats.getPruned() > 0);
+				assertEquals(50 * 16, stats.getEvaluations() + stats.getPruned());
+				for(PSOParticle p : sim.getParticles()) {
+					float fitness = p.getCurrent().getFitness();
+					assertTrue(Float.isNaN(fitness) || exact.calcFitness(p.getCurrent()) == fitness);
+					assertEquals(exact.calcFitness(p.getLocalBest()), p.getLocalBest().getFitness(), 0f);
+				}
+				sim.shutdown();
+			}
+		}
+	}
+	
+	@Test
+	public void testCandidateSiteMode() {
+		BufferedImage mask = new BufferedImage(300, 200, BufferedImage.TYPE_BYTE_GRAY);
+		Random r = new Random(7);
+		for(int i = 0; i < 100; i++) {
+			mask.getRaster().setSample(20 + r.nextInt(250), 20 + r.nextInt(150), 0, 255);
+		}
+		//sites outside the region are never used
+		for(int i = 0; i < 20; i++) {
+			mask.getRaster().setSample(275 + r.nextInt(25), r.nextInt(200), 0, 255);
+		}
+		CandidateSites sites = CandidateSites.fromMask(mask);
+		CandidateSites inside = sites.within(new Rectangle(20, 20, 250, 150));
+		assertTrue(inside.size() < sites.size());
+		for(int s = 0; s < inside.size(); s++) assertTrue(inside.getX(s) < 270);
+		
+		PSOSettings settings = new PSOSettings();
+		settings.nodes = 3;
+		settings.range = 15;
+		settings.particles = 10;
+		settings.region = new Rectangle(20, 20, 250, 150);
+		settings.sites = sites;
+		PSOSimulation sim = new PSOSimulation(settings, new GridData(createImage(300, 200, 7), true));
+		
+		for(int i = 0; i < 20; i++) sim.step();
+		for(PSOParticle p : sim.getParticles()) {
+			for(int j = 0; j < settings.nodes; j++) {
+				int x = p.getCurrent().getX(j);
+				int y = p.getCurrent().getY(j);
+				assertNotEquals(0, mask.getRaster().getSample(x, y, 0));
+				assertTrue(settings.region.contains(x, y));
+			}
+		}
+		sim.shutdown();
+	}
+	
+	@Test
+	public void testGreedySeed() {
+		GridData data = new GridData(createImage(300, 200, 8), true);
+		Rectangle region = new Rectangle(20, 20, 250, 150);
+		
+		GreedyOptimizer greedy = new GreedyOptimizer(data, region, 20, 10);
+		PSOSolution placed = greedy.run(5);
+		PSOFitnessFunction exact = PSOFitnessFunction.create(FitnessType.BinaryRange, data, region);
+		assertEquals(exact.calcFitness(placed), placed.getFitness(), 0f);
+		
+		//lazy, far fewer gains than a full rescan per node
+		assertTrue(greedy.getEvaluations() < (long)greedy.getCandidateCount() * 5);
+		
+		PSOSettings settings = new PSOSettings();
+		settings.nodes = 5;
+		settings.range = 20;
+		settings.particles = 8;
+		settings.region = region;
+		settings.greedySeed = true;
+		settings.greedyStride = 10;
+		PSOSimulation sim = new PSOSimulation(settings, data);
+		assertTrue(sim.getGlobalBest().getFitness() >= placed.getFitness());
+		sim.shutdown();
+	}
+	
+	@Test
+	public void testParticleDistributions() {
+		GridData data = new GridData(createImage(300, 200, 9), true);
+		Rectangle region = new Rectangle(20, 20, 250, 150);
+		
+		for(Distribution d : Distribution.values()) {
+			PSOSettings settings = new PSOSettings();
+			settings.nodes = 4;
+			settings.range = 10;
+			settings.particles = 12;
+			settings.region = region;
+			settings.distribution = d;
+			settings.seed = 9L;
+			settings.executionMode = ExecutionMode.Sequential;
+			PSOSimulation sim = new PSOSimulation(settings, data);
+			
+			for(PSOParticle p : sim.getParticles()) {
+				for(int i = 0; i < settings.nodes; i++) {
+					int x = p.getCurrent().getX(i);
+					int y = p.getCurrent().getY(i);
+					assertTrue(region.contains(x, y));
+					if(d == Distribution.Density) assertTrue(data.get(x, y) > 0);
+				}
+			}
+			sim.shutdown();
+		}
+	}
 }